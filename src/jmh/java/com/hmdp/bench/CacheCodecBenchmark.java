@@ -0,0 +1,100 @@
+package com.hmdp.bench;
+
+import com.hmdp.config.CacheClientProperties;
+import com.hmdp.entity.Shop;
+import com.hmdp.utils.CacheCodecRegistry;
+import com.hmdp.utils.RedisData;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.util.unit.DataSize;
+
+import java.time.LocalDateTime;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * CacheClient中缓存值的编解码: 普通缓存的Shop, 以及逻辑过期用的RedisData包装
+ *
+ * 按 hmdp.cache.codec 的各种配置分别测试, 编码后的字节数在启动每组测试时打印。
+ * hutool为引入编解码配置之前的格式, 逻辑过期需要解析两次; hutool格式不压缩。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class CacheCodecBenchmark {
+
+    @Param({"hutool", "json", "smile"})
+    public String codec;
+
+    /**
+     * 压缩阈值(字节), 0为不压缩
+     */
+    @Param({"0", "256"})
+    public long compressThreshold;
+
+    private CacheCodecRegistry registry;
+
+    private Shop shop;
+
+    private byte[] shopBytes;
+
+    private RedisData<Shop> redisData;
+
+    private byte[] redisDataBytes;
+
+    @Setup
+    public void setUp() {
+        CacheClientProperties properties = new CacheClientProperties();
+        properties.getCodec().setWrite(codec);
+        properties.getCodec().setCompressThreshold(DataSize.ofBytes(compressThreshold));
+        registry = new CacheCodecRegistry(properties);
+
+        shop = new Shop()
+                .setId(1L)
+                .setName("103茶餐厅")
+                .setTypeId(1L)
+                .setImages("https://qcloud.dpfile.com/pc/jiclIsCKmOI2arxKN1Uf0Hx3PucIJH8q0QSz-Z8llzcN56-_QiKuOvyio1OOxsRtFoXqu0G3iT2T27qat3WhLVEuLYk00OmSS1IdNpm8K8sG4JN9RIm2mTKcbLtc2o2vfCF2ubeXzk49OsGrXt_KYDCngOyCwZK-s3fqawWswzk.jpg")
+                .setArea("大关")
+                .setAddress("金华路锦昌文华苑29号")
+                .setX(120.149192)
+                .setY(30.316078)
+                .setAvgPrice(80L)
+                .setSold(4215)
+                .setComments(3035)
+                .setScore(37)
+                .setOpenHours("10:00-22:00")
+                .setCreateTime(LocalDateTime.now())
+                .setUpdateTime(LocalDateTime.now());
+        shopBytes = registry.encode(shop);
+
+        redisData = new RedisData<>();
+        redisData.setData(shop);
+        redisData.setExpireTime(LocalDateTime.now().plusMinutes(30));
+        redisDataBytes = registry.encode(redisData);
+        System.out.printf("%n[codec=%s, compressThreshold=%d] Shop: %d bytes, RedisData<Shop>: %d bytes%n",
+                codec, compressThreshold, shopBytes.length, redisDataBytes.length);
+    }
+
+    @Benchmark
+    public byte[] encodeShop() {
+        return registry.encode(shop);
+    }
+
+    @Benchmark
+    public Shop decodeShop() {
+        return registry.decode(shopBytes, Shop.class);
+    }
+
+    @Benchmark
+    public byte[] encodeRedisData() {
+        return registry.encode(redisData);
+    }
+
+    /**
+     * 与 CacheClient.queryWithLogicalExpire 相同的解码
+     */
+    @Benchmark
+    public RedisData<Shop> decodeRedisData() {
+        return registry.decodeLogical(redisDataBytes, Shop.class);
+    }
+}
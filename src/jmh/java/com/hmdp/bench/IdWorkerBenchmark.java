@@ -0,0 +1,58 @@
+package com.hmdp.bench;
+
+import com.hmdp.config.IdWorkerProperties;
+import com.hmdp.utils.RedisIdWorker;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.util.ReflectionUtils;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * RedisIdWorker.nextId 在三种模式下的耗时, redis替换为内存实现, 只衡量本地开销
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class IdWorkerBenchmark {
+
+    @Param({"INCR", "SEGMENT", "SNOWFLAKE"})
+    private IdWorkerProperties.Mode mode;
+
+    private RedisIdWorker idWorker;
+
+    @Setup
+    public void setUp() {
+        IdWorkerProperties properties = new IdWorkerProperties();
+        properties.setMode(mode);
+        idWorker = new RedisIdWorker(new InMemoryRedisTemplate(), properties);
+        invoke("init");
+    }
+
+    @TearDown
+    public void tearDown() {
+        invoke("destroy");
+    }
+
+    @Benchmark
+    public long nextId() {
+        return idWorker.nextId("order");
+    }
+
+    @Benchmark
+    @Threads(4)
+    public long nextIdContended() {
+        return idWorker.nextId("order");
+    }
+
+    /**
+     * 调用由spring负责的 @PostConstruct / @PreDestroy 方法
+     */
+    private void invoke(String name) {
+        Method method = ReflectionUtils.findMethod(RedisIdWorker.class, name);
+        ReflectionUtils.makeAccessible(method);
+        ReflectionUtils.invokeMethod(method, idWorker);
+    }
+}
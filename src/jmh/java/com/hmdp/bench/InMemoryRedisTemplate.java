@@ -0,0 +1,95 @@
+package com.hmdp.bench;
+
+import org.springframework.data.redis.core.HashOperations;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
+import org.springframework.data.redis.core.script.RedisScript;
+
+import java.lang.reflect.Proxy;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 基准测试用的内存版StringRedisTemplate, 不连接redis
+ *
+ * 只实现被测代码用到的命令: GET/SET/SETNX/INCR/INCRBY, HGETALL/HMSET, EXPIRE/DEL, 以及返回1的脚本调用,
+ * 过期时间被忽略。其他命令抛出UnsupportedOperationException。
+ */
+public class InMemoryRedisTemplate extends StringRedisTemplate {
+
+    private final Map<String, Object> data = new ConcurrentHashMap<>();
+
+    private final ValueOperations<String, String> valueOps = proxy(ValueOperations.class, (name, args) -> {
+        String key = args.length > 0 ? String.valueOf(args[0]) : null;
+        switch (name) {
+            case "get":
+                return data.get(key);
+            case "set":
+                data.put(key, args[1]);
+                return null;
+            case "setIfAbsent":
+                return data.putIfAbsent(key, args[1]) == null;
+            case "increment":
+                long delta = args.length > 1 ? ((Number) args[1]).longValue() : 1L;
+                return Long.valueOf((String) data.compute(key,
+                        (k, old) -> String.valueOf((old == null ? 0 : Long.parseLong((String) old)) + delta)));
+            default:
+                throw new UnsupportedOperationException(name);
+        }
+    });
+
+    @SuppressWarnings("unchecked")
+    private final HashOperations<String, Object, Object> hashOps = proxy(HashOperations.class, (name, args) -> {
+        String key = args.length > 0 ? String.valueOf(args[0]) : null;
+        switch (name) {
+            case "entries":
+                Object hash = data.get(key);
+                return hash == null ? Collections.emptyMap() : hash;
+            case "putAll":
+                ((Map<Object, Object>) data.computeIfAbsent(key, k -> new ConcurrentHashMap<>())).putAll((Map<?, ?>) args[1]);
+                return null;
+            default:
+                throw new UnsupportedOperationException(name);
+        }
+    });
+
+    @Override
+    public ValueOperations<String, String> opsForValue() {
+        return valueOps;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <HK, HV> HashOperations<String, HK, HV> opsForHash() {
+        return (HashOperations<String, HK, HV>) hashOps;
+    }
+
+    @Override
+    public Boolean expire(String key, long timeout, TimeUnit unit) {
+        return data.containsKey(key);
+    }
+
+    @Override
+    public Boolean delete(String key) {
+        return data.remove(key) != null;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> T execute(RedisScript<T> script, List<String> keys, Object... args) {
+        return (T) Long.valueOf(1);
+    }
+
+    private interface Handler {
+        Object handle(String name, Object[] args);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T proxy(Class<?> type, Handler handler) {
+        return (T) Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type},
+                (p, method, args) -> handler.handle(method.getName(), args == null ? new Object[0] : args));
+    }
+}
@@ -0,0 +1,25 @@
+package com.hmdp.bench;
+
+import com.hmdp.utils.RegexUtils;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * RegexUtils 手机号校验
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class RegexBenchmark {
+
+    @Param({"13812345678", "1381234567x"})
+    private String phone;
+
+    @Benchmark
+    public boolean isPhoneInvalid() {
+        return RegexUtils.isPhoneInvalid(phone);
+    }
+}
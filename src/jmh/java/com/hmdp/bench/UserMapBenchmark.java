@@ -0,0 +1,57 @@
+package com.hmdp.bench;
+
+import cn.hutool.core.bean.BeanUtil;
+import com.hmdp.dto.UserDTO;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 登录用户与redis hash之间的转换: UserServiceImpl.login 中的 beanToMap, RefreshTokenInterceptor 中的 fillBeanWithMap
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class UserMapBenchmark {
+
+    private UserDTO userDTO;
+
+    private Map<Object, Object> userMap;
+
+    @Setup
+    public void setUp() {
+        userDTO = new UserDTO();
+        userDTO.setId(1010L);
+        userDTO.setNickName("user_slxaxy2au9f3tanffaxr");
+        userDTO.setIcon("/imgs/icons/kkjtbcr.jpg");
+
+        userMap = new HashMap<>();
+        userMap.put("id", "1010");
+        userMap.put("nickName", "user_slxaxy2au9f3tanffaxr");
+        userMap.put("icon", "/imgs/icons/kkjtbcr.jpg");
+    }
+
+    /**
+     * 与 login 相同: beanToMap 后把Long转成String
+     */
+    @Benchmark
+    public Map<String, Object> beanToMap() {
+        Map<String, Object> map = BeanUtil.beanToMap(userDTO);
+        for (Map.Entry<String, Object> entry : map.entrySet()) {
+            Object value = entry.getValue();
+            if (value instanceof Long) {
+                entry.setValue(String.valueOf(value));
+            }
+        }
+        return map;
+    }
+
+    @Benchmark
+    public UserDTO fillBeanWithMap() {
+        return BeanUtil.fillBeanWithMap(userMap, new UserDTO(), false);
+    }
+}
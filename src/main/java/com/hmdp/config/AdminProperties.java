@@ -0,0 +1,22 @@
+package com.hmdp.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * 管理接口配置, 对应 application.yaml 中的 hmdp.admin
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "hmdp.admin")
+public class AdminProperties {
+
+    /**
+     * 可以访问管理接口(/admin/**, /voucher-order/admin/**)的用户id, 为空时所有用户都不能访问
+     */
+    private Set<Long> userIds = new HashSet<>();
+}
@@ -0,0 +1,67 @@
+package com.hmdp.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 布隆过滤器配置, 对应 application.yaml 中的 hmdp.bloom
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "hmdp.bloom")
+public class BloomFilterProperties {
+
+    /**
+     * 是否启用, 关闭时不拦截任何查询
+     */
+    private boolean enabled = false;
+
+    /**
+     * 是否同时保存为redis bitmap bloom:{name}, 并通过发布订阅把新增的id通知其他节点; 多节点部署必须开启,
+     * 否则其他节点新增的id在本节点重启前会被判断为不存在。查询只看本地过滤器, 开启后也不会增加查询的网络开销
+     */
+    private boolean redis = false;
+
+    /**
+     * 从redis bitmap同步其他节点新增id的间隔, 用于补上错过的通知; 错过通知的id在同步前会被本节点判断为不存在
+     */
+    private Duration syncInterval = Duration.ofSeconds(30);
+
+    /**
+     * 每张表一个过滤器
+     */
+    private List<Spec> filters = new ArrayList<>();
+
+    @Data
+    public static class Spec {
+        /**
+         * 过滤器名称, 也是redis bitmap的key后缀
+         */
+        private String name;
+
+        /**
+         * 启动时从该表加载所有id, 插入该表的实体会自动加入过滤器
+         */
+        private String table;
+
+        /**
+         * 使用该过滤器的缓存key前缀, 例如 cache:shop:
+         */
+        private String prefix;
+
+        /**
+         * 预计的id个数, 超过后误判率会上升
+         */
+        private long expectedInsertions = 100000;
+
+        /**
+         * 期望误判率, 与预计个数一起决定占用的内存
+         */
+        private double fpp = 0.01;
+    }
+}
@@ -0,0 +1,263 @@
+package com.hmdp.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * CacheClient相关配置, 对应 application.yaml 中的 hmdp.cache
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "hmdp.cache")
+public class CacheClientProperties {
+
+    /**
+     * 进程内一级缓存
+     */
+    private final L1 l1 = new L1();
+
+    /**
+     * queryWithMutex的重建合并
+     */
+    private final SingleFlight singleFlight = new SingleFlight();
+
+    /**
+     * 逻辑过期数据的提前刷新
+     */
+    private final EarlyRefresh earlyRefresh = new EarlyRefresh();
+
+    /**
+     * 缓存值的编码
+     */
+    private final Codec codec = new Codec();
+
+    /**
+     * 异步重建缓存的线程池
+     */
+    private final Rebuild rebuild = new Rebuild();
+
+    /**
+     * 数据更新后的缓存删除
+     */
+    private final Invalidation invalidation = new Invalidation();
+
+    /**
+     * 热点key探测和本地缓存
+     */
+    private final HotKey hotKey = new HotKey();
+
+    /**
+     * 过期时间的随机偏移
+     */
+    private final Jitter jitter = new Jitter();
+
+    @Data
+    public static class Jitter {
+        /**
+         * 是否给写入缓存的过期时间(包括逻辑过期时间)加上随机偏移, 使同一批写入的key分散过期
+         */
+        private boolean enabled = false;
+
+        /**
+         * 没有匹配到前缀配置时的偏移比例: 实际过期时长在 [ttl, ttl * (1 + ratio)) 内均匀分布, 为0时不偏移
+         */
+        private double ratio = 0.1;
+
+        /**
+         * 按key前缀配置偏移比例, 有多个前缀匹配时取最长的
+         */
+        private List<JitterSpec> specs = new ArrayList<>();
+    }
+
+    @Data
+    public static class JitterSpec {
+        /**
+         * key前缀, 例如 cache:shop:
+         */
+        private String prefix;
+
+        private double ratio;
+    }
+
+    @Data
+    public static class Invalidation {
+        /**
+         * 后台线程合并删除的间隔, 也是事务提交后到缓存被删除的最长等待
+         */
+        private Duration flushInterval = Duration.ofMillis(10);
+
+        /**
+         * 每次pipeline最多删除的key数
+         */
+        private int batchSize = 100;
+
+        /**
+         * 延迟双删的间隔, 应大于一次缓存重建的耗时; 为0时不做第二次删除
+         */
+        private Duration secondDeleteDelay = Duration.ofMillis(500);
+
+        /**
+         * 删除失败的最多尝试次数, 第n次重试前等待 retryInterval * 2^(n-1)
+         */
+        private int maxAttempts = 5;
+
+        private Duration retryInterval = Duration.ofMillis(200);
+
+        /**
+         * 等待删除的key数上限, 超出时放弃删除, 依靠缓存过期
+         */
+        private int queueCapacity = 100000;
+    }
+
+    @Data
+    public static class Rebuild {
+        /**
+         * 执行重建的线程数
+         */
+        private int threads = 10;
+
+        /**
+         * 最多排队的任务数, 超出后按overflow处理
+         */
+        private int queueCapacity = 1000;
+
+        /**
+         * 队列满时的处理: drop 丢弃并释放互斥锁, 继续返回旧数据; caller-runs 由查询线程同步重建, 拖慢查询以减缓提交速度
+         */
+        private Overflow overflow = Overflow.DROP;
+
+        /**
+         * 停机时等待排队任务执行完的最长时间
+         */
+        private Duration shutdownTimeout = Duration.ofSeconds(10);
+    }
+
+    public enum Overflow {
+        DROP, CALLER_RUNS
+    }
+
+    @Data
+    public static class HotKey {
+        /**
+         * 是否统计缓存key的访问频率, 并把热点key的查询结果放入本地缓存
+         */
+        private boolean enabled = false;
+
+        /**
+         * 抽样比例, 只有被抽中的访问计入统计
+         */
+        private double sampleRate = 0.1;
+
+        /**
+         * 统计的滑动窗口
+         */
+        private Duration window = Duration.ofSeconds(10);
+
+        /**
+         * 窗口分为多少个桶, 每过 window/buckets 淘汰最旧的一个桶
+         */
+        private int buckets = 10;
+
+        /**
+         * 每个桶的Count-Min Sketch行数和每行计数器个数, 决定估计误差和内存占用
+         */
+        private int depth = 4;
+
+        private int width = 4096;
+
+        /**
+         * 最多跟踪的候选key数
+         */
+        private int topK = 20;
+
+        /**
+         * 本节点估计QPS达到该值的key视为热点
+         */
+        private double hotQps = 500;
+
+        /**
+         * 热点key的本地缓存, 只用于没有配置一级缓存的key前缀
+         */
+        private Duration localTtl = Duration.ofSeconds(1);
+
+        private long localMaximumSize = 1000;
+    }
+
+    @Data
+    public static class EarlyRefresh {
+        /**
+         * 是否在逻辑过期之前按概率提前重建(XFetch), 关闭时只在过期后重建
+         */
+        private boolean enabled = false;
+
+        /**
+         * 提前的程度, 大于1时更早开始刷新, 小于1时更接近过期才刷新
+         */
+        private double beta = 1.0;
+    }
+
+    @Data
+    public static class Codec {
+        /**
+         * 写入使用的编码: hutool(旧格式, 不带头部) / json / smile(二进制);
+         * 读取时按值的头部识别编码, 与该配置无关, 因此修改前要保证所有节点都已升级到能读取新编码的版本
+         */
+        private String write = "hutool";
+
+        /**
+         * 编码后不小于该大小的值用deflate压缩, 为0时不压缩;
+         * 只对json和smile生效, 默认的hutool格式没有头部, 无法标记压缩, 不论该值为多少都不压缩
+         */
+        private DataSize compressThreshold = DataSize.ofKilobytes(1);
+    }
+
+    @Data
+    public static class SingleFlight {
+        /**
+         * 等待重建结果(包括等待其他节点释放互斥锁)的最长时间, 超时后请求失败而不是继续占用线程
+         */
+        private Duration timeout = Duration.ofSeconds(3);
+
+        /**
+         * 互斥锁被其他节点持有时, 重新检查缓存和抢锁的间隔
+         */
+        private Duration lockRetryInterval = Duration.ofMillis(50);
+    }
+
+    @Data
+    public static class L1 {
+        /**
+         * 是否启用一级缓存, 关闭时所有查询直接访问redis
+         */
+        private boolean enabled = false;
+
+        /**
+         * 按key前缀配置, 没有配置的前缀不使用一级缓存
+         */
+        private List<Spec> specs = new ArrayList<>();
+    }
+
+    @Data
+    public static class Spec {
+        /**
+         * key前缀, 与CacheClient查询时传入的keyPrefix相同, 例如 cache:shop:
+         */
+        private String prefix;
+
+        /**
+         * 最多缓存的key数, 超过后按访问频率淘汰, 决定了一级缓存能达到的命中率
+         */
+        private long maximumSize = 1000;
+
+        /**
+         * 写入后的存活时间, 即没有收到失效通知时最多读到多久之前的数据
+         */
+        private Duration expireAfterWrite = Duration.ofSeconds(5);
+    }
+}
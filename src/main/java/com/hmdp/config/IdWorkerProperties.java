@@ -0,0 +1,51 @@
+package com.hmdp.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+
+/**
+ * 全局ID生成器配置, 对应 application.yaml 中的 hmdp.id
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "hmdp.id")
+public class IdWorkerProperties {
+
+    /**
+     * 序列号的分配方式: incr 每个ID执行一次INCR; segment 每次INCRBY预留一段序列号在本地分配;
+     * snowflake 启动时从redis租用workerId, 之后完全在本地生成
+     */
+    private Mode mode = Mode.INCR;
+
+    /**
+     * segment模式下每次预留的序列号个数
+     */
+    private int segmentSize = 1000;
+
+    /**
+     * segment模式下当前号段剩余比例低于该值时, 异步预取下一个号段
+     */
+    private double refillRatio = 0.2;
+
+    /**
+     * snowflake模式下workerId占用的位数, 序列号占用剩下的 32 - workerBits 位
+     */
+    private int workerBits = 10;
+
+    /**
+     * snowflake模式下workerId租约的有效期, 每隔1/3有效期续约一次
+     */
+    private Duration leaseTtl = Duration.ofSeconds(30);
+
+    /**
+     * snowflake模式下可以容忍的时钟回拨, 回拨不超过该值时沿用上次的时间戳, 超过则拒绝生成ID
+     */
+    private Duration maxBackward = Duration.ofSeconds(5);
+
+    public enum Mode {
+        INCR, SEGMENT, SNOWFLAKE
+    }
+}
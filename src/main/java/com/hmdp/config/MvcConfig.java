@@ -1,5 +1,6 @@
 package com.hmdp.config;
 
+import com.hmdp.utils.AdminInterceptor;
 import com.hmdp.utils.LoginInterceptor;
 import com.hmdp.utils.RefreshTokenInterceptor;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -13,9 +14,12 @@ import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
 public class MvcConfig implements WebMvcConfigurer {
     private StringRedisTemplate stringRedisTemplate;
 
+    private AdminProperties adminProperties;
+
     @Autowired
-    public MvcConfig(StringRedisTemplate redisTemplate) {
+    public MvcConfig(StringRedisTemplate redisTemplate, AdminProperties adminProperties) {
         this.stringRedisTemplate = redisTemplate;
+        this.adminProperties = adminProperties;
     }
 
     @Override
@@ -31,6 +35,10 @@ public class MvcConfig implements WebMvcConfigurer {
                         "/user/code",
                         "/user/login"
                 ).order(1);
+        //  管理接口的拦截器
+        registry.addInterceptor(new AdminInterceptor(adminProperties))
+                .addPathPatterns("/admin/**", "/voucher-order/admin/**")
+                .order(2);
         //  token刷新的拦截器
         registry.addInterceptor(new RefreshTokenInterceptor(stringRedisTemplate)).addPathPatterns("/**")
                 .order(0);
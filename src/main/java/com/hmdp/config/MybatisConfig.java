@@ -3,6 +3,8 @@ package com.hmdp.config;
 import com.baomidou.mybatisplus.annotation.DbType;
 import com.baomidou.mybatisplus.extension.plugins.MybatisPlusInterceptor;
 import com.baomidou.mybatisplus.extension.plugins.inner.PaginationInnerInterceptor;
+import com.hmdp.utils.BloomFilterInsertInterceptor;
+import com.hmdp.utils.BloomFilterRegistry;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
@@ -14,4 +16,9 @@ public class MybatisConfig {
         interceptor.addInnerInterceptor(new PaginationInnerInterceptor(DbType.MYSQL));
         return interceptor;
     }
+
+    @Bean
+    public BloomFilterInsertInterceptor bloomFilterInsertInterceptor(BloomFilterRegistry bloomFilterRegistry) {
+        return new BloomFilterInsertInterceptor(bloomFilterRegistry);
+    }
 }
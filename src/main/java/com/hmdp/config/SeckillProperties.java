@@ -0,0 +1,197 @@
+package com.hmdp.config;
+
+import com.hmdp.utils.SeckillStockUtils;
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+
+/**
+ * 秒杀相关配置, 对应 application.yaml 中的 hmdp.seckill
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "hmdp.seckill")
+public class SeckillProperties {
+
+    /**
+     * 库存分段数, 大于1时每张券的库存拆成多个子key, 一人一单的set同样分片, 秒杀时逐段尝试;
+     * 第n段的订单写入分区 (voucherId + n) % partitions, 集群中要让各段落在不同节点上, partitions应不小于分段数。
+     * 修改后需要重新写入库存才会生效
+     */
+    private int stockSegments = 1;
+
+    /**
+     * 本地售罄标记的有效期, 过期后下一个请求重新执行秒杀脚本确认库存, 仍然售罄时再次标记
+     */
+    private Duration soldOutTtl = Duration.ofSeconds(5);
+
+    /**
+     * 异步下单(消费stream.orders)相关配置
+     */
+    private final Order order = new Order();
+
+    /**
+     * 订单stream的保留与归档配置
+     */
+    private final Retention retention = new Retention();
+
+    /**
+     * 本地下单模式(order.mode=local)的环形缓冲区与预写日志配置
+     */
+    private final Local local = new Local();
+
+    @Data
+    public static class Local {
+        /**
+         * 环形缓冲区容量, 向上取整为2的幂; 缓冲区满时秒杀请求会等待消费线程写库
+         */
+        private int ringSize = 65536;
+
+        /**
+         * 预写日志目录
+         */
+        private String walDir = "wal";
+
+        /**
+         * 预写日志段文件大小, 每条订单占32字节
+         */
+        private DataSize walSegmentSize = DataSize.ofMegabytes(64);
+    }
+
+    @Data
+    public static class Retention {
+        /**
+         * 是否定期裁剪已ACK的订单消息
+         */
+        private boolean enabled = true;
+
+        /**
+         * 裁剪的执行间隔
+         */
+        private Duration interval = Duration.ofMinutes(1);
+
+        /**
+         * 裁剪前是否把要删除的消息追加到本地压缩归档文件, 用于审计回放
+         */
+        private boolean archive = false;
+
+        /**
+         * 归档目录, 文件名为 stream key-yyyyMMdd.jsonl.gz, key中的冒号等字符替换为下划线, 例如 stream.orders_3-20240101.jsonl.gz
+         */
+        private String archiveDir = "archive";
+
+        /**
+         * 死信队列stream.orders.dlq中消息的保留时间, 超过后裁剪(开启归档时先归档); 不大于0时不裁剪
+         */
+        private Duration dlqMaxAge = Duration.ofDays(7);
+    }
+
+    @Data
+    public static class Order {
+        /**
+         * 下单模式: stream 通过redis stream交给消费者组异步下单, 支持多节点;
+         * local 通过本机的环形缓冲区和预写日志异步下单, 只适合单节点
+         */
+        private Mode mode = Mode.STREAM;
+
+        /**
+         * 消费者组名称
+         */
+        private String group = "g1";
+
+        /**
+         * 订单stream的分区数, 不分段时按 voucherId % partitions 选择分区, 分段时见stockSegments; 为1时只使用stream.orders;
+         * 大于1时每个分区在整个集群内只由持有其租约的一个节点的一个线程消费, 同一分区的订单按顺序处理
+         */
+        private int partitions = 1;
+
+        /**
+         * 分区租约的有效期: 分区数大于1时每个分区同一时间只由一个节点消费, 节点宕机后最多经过该时间由其他节点接管
+         */
+        private Duration partitionLeaseTtl = Duration.ofSeconds(30);
+
+        /**
+         * 统计分区积压(lag)时最多扫描的消息数, 避免积压很大时XRANGE过慢
+         */
+        private int lagScanLimit = 10000;
+
+        /**
+         * 本节点的消费线程数
+         */
+        private int consumerThreads = Runtime.getRuntime().availableProcessors();
+
+        /**
+         * 本节点的实例id, 消费者名称为 实例id-线程序号; 为空时使用 主机名-进程号
+         */
+        private String instanceId;
+
+        /**
+         * pending消息空闲超过该时间才会被XCLAIM接管(例如宕机节点留下的消息)
+         */
+        private Duration claimMinIdle = Duration.ofMinutes(1);
+
+        /**
+         * 每个消费线程扫描并接管pending消息的间隔
+         */
+        private Duration claimInterval = Duration.ofSeconds(30);
+
+        /**
+         * 消息的最大投递次数, 达到后转入死信队列stream.orders.dlq; 本地下单模式下为整批写库的最大重试次数, 之后逐单重试, 仍失败的写入死信文件
+         */
+        private int maxDeliveries = 5;
+
+        /**
+         * 下单异常后重试本消费者pending消息前的退避时间, 连续失败时每次翻倍
+         */
+        private Duration pendingRetryBackoff = Duration.ofSeconds(1);
+
+        /**
+         * 退避时间的上限; 默认配置下一条消息从首次失败到转入死信队列至少经过 1+2+4+8 秒
+         */
+        private Duration pendingRetryMaxBackoff = Duration.ofSeconds(30);
+
+        /**
+         * 每次XREADGROUP最多读取的消息数, 为1时退化为逐条下单
+         */
+        private int batchSize = 100;
+
+        /**
+         * 攒批的最长等待时间, 到时间即使不满一批也会提交
+         */
+        private Duration maxLinger = Duration.ofMillis(200);
+
+        /**
+         * 打印下单吞吐量(单/秒)的时间间隔
+         */
+        private Duration statsInterval = Duration.ofSeconds(10);
+
+        public enum Mode {
+            STREAM, LOCAL
+        }
+
+        /**
+         * 分区对应的stream key
+         */
+        public String streamKey(int partition) {
+            return SeckillStockUtils.streamKey(partition, partitions);
+        }
+
+        /**
+         * 所有分区的stream key
+         */
+        public List<String> streamKeys() {
+            int n = Math.max(1, partitions);
+            List<String> keys = new ArrayList<>(n);
+            for (int i = 0; i < n; i++) {
+                keys.add(streamKey(i));
+            }
+            return keys;
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package com.hmdp.controller;
+
+
+import com.hmdp.dto.Result;
+import com.hmdp.utils.BloomFilterRegistry;
+import com.hmdp.utils.CacheExpiryInspector;
+import com.hmdp.utils.HotKeyDetector;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import javax.annotation.Resource;
+
+/**
+ * 缓存相关的运维接口
+ */
+@RestController
+@RequestMapping("/admin/cache")
+public class CacheAdminController {
+
+    @Resource
+    private BloomFilterRegistry bloomFilterRegistry;
+
+    @Resource
+    private HotKeyDetector hotKeyDetector;
+
+    @Resource
+    private CacheExpiryInspector cacheExpiryInspector;
+
+    /**
+     * 各布隆过滤器的内存占用、元素数和估算误判率
+     */
+    @GetMapping("/bloom")
+    public Result bloomStats() {
+        return Result.ok(bloomFilterRegistry.stats());
+    }
+
+    /**
+     * 本节点当前的热点key候选及估计QPS, hot为true的已放入本地缓存
+     */
+    @GetMapping("/hot-keys")
+    public Result hotKeys() {
+        return Result.ok(hotKeyDetector.hotKeys());
+    }
+
+    /**
+     * 从key前缀下均匀抽样, 统计缓存的剩余过期时间分布, 检查是否有大量key集中在同一时刻过期
+     * @param sample 最多抽样的key数
+     * @param bucketSeconds 按剩余秒数分桶的宽度
+     */
+    @GetMapping("/expiry")
+    public Result expiry(@RequestParam("prefix") String prefix,
+                         @RequestParam(value = "sample", defaultValue = "1000") Integer sample,
+                         @RequestParam(value = "bucketSeconds", defaultValue = "60") Long bucketSeconds) {
+        if (sample <= 0 || bucketSeconds <= 0) {
+            return Result.fail("sample和bucketSeconds必须大于0");
+        }
+        return Result.ok(cacheExpiryInspector.inspect(prefix, Math.min(sample, 100000), bucketSeconds));
+    }
+}
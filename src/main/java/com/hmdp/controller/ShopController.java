@@ -10,6 +10,8 @@ import com.hmdp.utils.SystemConstants;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.web.bind.annotation.*;
 
+import java.util.List;
+
 /**
  * <p>
  * 前端控制器
@@ -40,6 +42,19 @@ public class ShopController {
         return shopService.queryShopById(id);
     }
 
+    /**
+     * 批量查询商铺信息, 用于列表渲染
+     * @param ids 商铺id, 逗号分隔
+     * @return 与ids顺序一致的商铺列表, 不存在的为null
+     */
+    @GetMapping("/list")
+    public Result queryShopByIds(@RequestParam("ids") List<Long> ids) {
+        if (ids.size() > SystemConstants.MAX_PAGE_SIZE * 10) {
+            return Result.fail("一次最多查询" + SystemConstants.MAX_PAGE_SIZE * 10 + "个商铺");
+        }
+        return shopService.queryShopByIds(ids);
+    }
+
     /**
      * 新增商铺信息
      * @param shop 商铺数据
@@ -4,10 +4,15 @@ package com.hmdp.controller;
 import com.hmdp.dto.Result;
 import com.hmdp.service.IVoucherOrderService;
 import lombok.RequiredArgsConstructor;
+import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.async.DeferredResult;
+
+import java.util.concurrent.TimeUnit;
 
 /**
  * <p>
@@ -23,4 +28,38 @@ public class VoucherOrderController {
     public Result seckillVoucher(@PathVariable("id") Long voucherId) {
         return voucherOrderService.seckillVoucher(voucherId);
     }
+
+    /**
+     * 查询秒杀订单的处理结果: PENDING/CREATED/FAILED
+     */
+    @GetMapping("{id}/status")
+    public Result queryOrderStatus(@PathVariable("id") Long orderId) {
+        return voucherOrderService.queryOrderStatus(orderId);
+    }
+
+    /**
+     * 长轮询秒杀订单的处理结果, 订单处理完成或超时后返回
+     * @param timeout 最长等待时间, 单位秒
+     */
+    @GetMapping("{id}/status/wait")
+    public DeferredResult<Result> waitOrderStatus(@PathVariable("id") Long orderId,
+                                                  @RequestParam(value = "timeout", defaultValue = "10") Integer timeout) {
+        return voucherOrderService.waitOrderStatus(orderId, TimeUnit.SECONDS.toMillis(Math.min(Math.max(timeout, 1), 30)));
+    }
+
+    /**
+     * 查看订单stream每个分区的积压情况
+     */
+    @GetMapping("admin/partitions")
+    public Result queryPartitionStats() {
+        return voucherOrderService.queryPartitionStats();
+    }
+
+    /**
+     * 查看pending消息数和死信队列长度
+     */
+    @GetMapping("admin/pending")
+    public Result queryPendingStats() {
+        return voucherOrderService.queryPendingStats();
+    }
 }
@@ -0,0 +1,32 @@
+package com.hmdp.dto;
+
+import lombok.Data;
+
+/**
+ * 布隆过滤器的容量和误判率
+ */
+@Data
+public class BloomFilterStats {
+    private String name;
+    private String table;
+    /**
+     * 是否已经从数据库加载完成, 加载完成前不拦截查询
+     */
+    private Boolean ready;
+    private Long bitSize;
+    private Integer hashes;
+    /**
+     * 位数组占用的内存字节数
+     */
+    private Long memoryBytes;
+    private Long expectedInsertions;
+    private Long insertions;
+    /**
+     * 配置的期望误判率
+     */
+    private Double fpp;
+    /**
+     * 按当前置位比例估算的误判率
+     */
+    private Double estimatedFpp;
+}
@@ -0,0 +1,62 @@
+package com.hmdp.dto;
+
+import lombok.Data;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * 一个key前缀下抽样key的过期时间分布
+ */
+@Data
+public class ExpiryDistribution {
+    /**
+     * key前缀
+     */
+    private String prefix;
+    /**
+     * 前缀下遍历到的key总数
+     */
+    private Long scanned;
+    /**
+     * 抽样的key数
+     */
+    private Integer sampled;
+    /**
+     * 设置了TTL的key数
+     */
+    private Integer ttlKeys;
+    /**
+     * 逻辑过期且尚未过期的key数
+     */
+    private Integer logicalKeys;
+    /**
+     * 已经逻辑过期、等待重建的key数
+     */
+    private Integer logicalExpired;
+    /**
+     * 既没有TTL也不是逻辑过期格式的key数
+     */
+    private Integer noExpiry;
+    /**
+     * 同一秒内过期的最多key数, 与sampled之比越大, 到期时越容易集中重建
+     */
+    private Integer peakPerSecond;
+    /**
+     * 过期key数最多的那一秒
+     */
+    private LocalDateTime peakSecond;
+    /**
+     * 按剩余时间分桶的key数, 只包含有数据的桶
+     */
+    private List<Bucket> buckets;
+
+    @Data
+    public static class Bucket {
+        /**
+         * 桶的起始剩余秒数, 桶内key的剩余时间在 [from, from + bucketSeconds) 内
+         */
+        private Long from;
+        private Integer count;
+    }
+}
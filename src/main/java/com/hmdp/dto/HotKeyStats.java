@@ -0,0 +1,19 @@
+package com.hmdp.dto;
+
+import lombok.Data;
+
+/**
+ * 本节点探测到的热点key候选
+ */
+@Data
+public class HotKeyStats {
+    private String key;
+    /**
+     * 按抽样估计的本节点QPS
+     */
+    private Double qps;
+    /**
+     * 是否达到热点阈值, 达到后查询结果放入本地热点缓存
+     */
+    private Boolean hot;
+}
@@ -0,0 +1,24 @@
+package com.hmdp.dto;
+
+import lombok.Data;
+
+import java.util.Map;
+
+/**
+ * 订单stream的pending消息和死信统计
+ */
+@Data
+public class OrderPendingStats {
+    /**
+     * stream key -> 已投递未ACK的消息数
+     */
+    private Map<String, Long> pending;
+    /**
+     * 所有分区的pending消息总数
+     */
+    private Long totalPending;
+    /**
+     * 死信队列stream.orders.dlq中的消息数
+     */
+    private Long deadLetters;
+}
@@ -0,0 +1,23 @@
+package com.hmdp.dto;
+
+import lombok.Data;
+
+/**
+ * 秒杀订单的异步处理结果
+ */
+@Data
+public class OrderStatusDTO {
+    public static final String PENDING = "PENDING";
+    public static final String CREATED = "CREATED";
+    public static final String FAILED = "FAILED";
+
+    private Long orderId;
+    /**
+     * PENDING: 已抢到, 等待写入数据库; CREATED: 订单已创建; FAILED: 下单失败
+     */
+    private String state;
+    /**
+     * 失败原因
+     */
+    private String reason;
+}
@@ -0,0 +1,38 @@
+package com.hmdp.dto;
+
+import lombok.Data;
+
+/**
+ * 订单stream单个分区的消费情况
+ */
+@Data
+public class StreamPartitionStats {
+    /**
+     * 分区序号
+     */
+    private Integer partition;
+    /**
+     * stream key
+     */
+    private String stream;
+    /**
+     * stream中的消息数(XLEN)
+     */
+    private Long length;
+    /**
+     * 已投递未ACK的消息数
+     */
+    private Long pending;
+    /**
+     * 尚未投递给消费者组的消息数, 超过扫描上限时为上限值
+     */
+    private Long lag;
+    /**
+     * 消费者组最后投递的消息id
+     */
+    private String lastDeliveredId;
+    /**
+     * 消费者数量
+     */
+    private Long consumers;
+}
@@ -2,6 +2,9 @@ package com.hmdp.mapper;
 
 import com.hmdp.entity.VoucherOrder;
 import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import org.apache.ibatis.annotations.Param;
+
+import java.util.List;
 
 /**
  * <p>
@@ -13,4 +16,11 @@ import com.baomidou.mybatisplus.core.mapper.BaseMapper;
  */
 public interface VoucherOrderMapper extends BaseMapper<VoucherOrder> {
 
+    /**
+     * 多行INSERT批量保存订单, 任一行与已有订单的id或(user_id, voucher_id)重复时整条语句失败,
+     * 抛出DuplicateKeyException。不用INSERT IGNORE, 它会把截断、非法值等错误也变成警告后忽略
+     * @param orders 订单列表, 不能为空
+     * @return 插入的行数
+     */
+    int insertBatch(@Param("orders") List<VoucherOrder> orders);
 }
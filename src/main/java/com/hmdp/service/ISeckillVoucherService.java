@@ -3,6 +3,8 @@ package com.hmdp.service;
 import com.hmdp.entity.SeckillVoucher;
 import com.baomidou.mybatisplus.extension.service.IService;
 
+import java.util.List;
+
 /**
  * <p>
  * 秒杀优惠券表，与优惠券是一对一关系 服务类
@@ -13,4 +15,21 @@ import com.baomidou.mybatisplus.extension.service.IService;
  */
 public interface ISeckillVoucherService extends IService<SeckillVoucher> {
 
+    /**
+     * 把所有未结束的秒杀券的库存和时间窗口预热到redis, 已存在的库存不会被覆盖
+     */
+    void warmUp();
+
+    /**
+     * 用pipeline把秒杀券的库存和时间窗口写入redis, 然后清除各节点的售罄标记
+     * @param seckillVouchers 秒杀券
+     * @param overwriteStock true:覆盖redis中的库存(新建券); false:只在库存key不存在时写入(预热)
+     */
+    void saveToRedis(List<SeckillVoucher> seckillVouchers, boolean overwriteStock);
+
+    /**
+     * 根据本地缓存的时间窗口判断当前能否秒杀, 本地没有时从redis读取一次; redis中也没有该券的窗口时交给lua脚本判断
+     * @return 0:可以秒杀; 3:尚未开始; 4:已经结束, 与seckill.lua的返回值一致
+     */
+    int checkWindow(Long voucherId);
 }
@@ -3,6 +3,10 @@ package com.hmdp.service;
 import com.hmdp.dto.Result;
 import com.hmdp.entity.VoucherOrder;
 import com.baomidou.mybatisplus.extension.service.IService;
+import org.springframework.web.context.request.async.DeferredResult;
+
+import java.util.List;
+import java.util.Map;
 
 /**
  * <p>
@@ -16,5 +20,37 @@ public interface IVoucherOrderService extends IService<VoucherOrder> {
 
     Result seckillVoucher(Long voucherId);
 
-    void createVoucherOrder(VoucherOrder voucherId);
+    /**
+     * 幂等创建单个订单, 重复消费同一订单不会重复扣减库存, 订单已经存在时视为成功
+     * @return 失败原因, 成功时为null
+     */
+    String createVoucherOrder(VoucherOrder voucherId);
+
+    /**
+     * 批量创建订单: 一条多行INSERT, 每张券一次聚合扣减库存; 库存不足时先到的订单扣减剩余库存, 超出的订单失败
+     * @param voucherOrders 同一批从stream.orders读取的订单
+     * @return 未能创建的订单id -> 失败原因, 其余订单都已创建(包括之前已经创建过的同一订单);
+     *         批中有订单与该用户的另一个订单重复时回滚并返回null, 由调用方逐单调用createVoucherOrder
+     */
+    Map<Long, String> createVoucherOrders(List<VoucherOrder> voucherOrders);
+
+    /**
+     * 查询每个订单stream分区的长度、pending数和积压(lag)
+     */
+    Result queryPartitionStats();
+
+    /**
+     * 查询每个订单stream分区的pending消息数和死信队列长度
+     */
+    Result queryPendingStats();
+
+    /**
+     * 查询订单的异步处理结果, 只读redis
+     */
+    Result queryOrderStatus(Long orderId);
+
+    /**
+     * 长轮询订单的异步处理结果, 订单处理完成或超时后返回
+     */
+    DeferredResult<Result> waitOrderStatus(Long orderId, long timeoutMillis);
 }
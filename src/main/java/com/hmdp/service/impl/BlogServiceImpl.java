@@ -11,6 +11,7 @@ import com.hmdp.entity.User;
 import com.hmdp.mapper.BlogMapper;
 import com.hmdp.service.IBlogService;
 import com.hmdp.service.IUserService;
+import com.hmdp.utils.HotKeyDetector;
 import com.hmdp.utils.SystemConstants;
 import com.hmdp.utils.UserHolder;
 import lombok.RequiredArgsConstructor;
@@ -40,6 +41,8 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
 
     private final StringRedisTemplate stringRedisTemplate;
 
+    private final HotKeyDetector hotKeyDetector;
+
     @Override
     public Result queryHotBlog(Integer current) {
         // 根据用户查询
@@ -63,6 +66,7 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
 
         // 2. 判断当前登录用户是否已经点赞
         String key = BLOG_LIKED_KEY + id;
+        hotKeyDetector.record(key);
         Double score = stringRedisTemplate.opsForZSet().score(key, userId.toString());
         if (score == null) {
             //3.如果未点赞，可以点赞
@@ -87,6 +91,7 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
     @Override
     public Result queryBlogLikes(Long id) {
         String key =BLOG_LIKED_KEY +id;
+        hotKeyDetector.record(key);
         //1. 查询top5的点赞用户 zrange key 0 4
         Set<String> range = stringRedisTemplate.opsForZSet().range(key, 0, 4);
         if(range == null || range.isEmpty()) {
@@ -131,6 +136,8 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
 
         // 2. 判断当前用户是否已经点赞
         String key =BLOG_LIKED_KEY + blog.getId();
+        // 点赞集合按用户查询, 不放入本地缓存, 只统计访问频率
+        hotKeyDetector.record(key);
         Double score = stringRedisTemplate.opsForZSet().score(key, userId.toString());
         blog.setIsLike(score != null);
 
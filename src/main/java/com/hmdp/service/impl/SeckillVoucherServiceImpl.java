@@ -1,11 +1,33 @@
 package com.hmdp.service.impl;
 
+import com.hmdp.config.SeckillProperties;
 import com.hmdp.entity.SeckillVoucher;
 import com.hmdp.mapper.SeckillVoucherMapper;
 import com.hmdp.service.ISeckillVoucherService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.hmdp.utils.SeckillStockUtils;
+import com.hmdp.utils.SoldOutRegistry;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.PostConstruct;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
 /**
  * <p>
  * 秒杀优惠券表，与优惠券是一对一关系 服务实现类
@@ -14,7 +36,128 @@ import org.springframework.stereotype.Service;
  * @author 虎哥
  * @since 2022-01-04
  */
+@Slf4j
 @Service
+@RequiredArgsConstructor
 public class SeckillVoucherServiceImpl extends ServiceImpl<SeckillVoucherMapper, SeckillVoucher> implements ISeckillVoucherService {
 
+    /**
+     * 时间窗口key在秒杀结束后继续保留的时间
+     */
+    private static final long WINDOW_KEEP_MILLIS = TimeUnit.DAYS.toMillis(1);
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    private final SeckillProperties seckillProperties;
+
+    private final SoldOutRegistry soldOutRegistry;
+
+    /**
+     * 本地缓存的时间窗口 voucherId -> [begin, end] 毫秒时间戳;
+     * 任一节点重新写入该券时通过售罄频道的清除通知失效, 下次判断时从redis重新读取
+     */
+    private final Map<Long, long[]> windows = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    private void init() {
+        soldOutRegistry.onClear(windows::remove);
+    }
+
+    @Override
+    @EventListener(ApplicationReadyEvent.class)
+    public void warmUp() {
+        //1. 查询所有未结束的秒杀券
+        List<SeckillVoucher> seckillVouchers = query().gt("end_time", LocalDateTime.now()).list();
+        if (seckillVouchers.isEmpty()) {
+            return;
+        }
+        //2. 写入redis, 不覆盖正在进行的秒杀的库存
+        saveToRedis(seckillVouchers, false);
+        log.info("预热秒杀券{}张", seckillVouchers.size());
+    }
+
+    @Override
+    public void saveToRedis(List<SeckillVoucher> seckillVouchers, boolean overwriteStock) {
+        int segments = Math.max(1, seckillProperties.getStockSegments());
+        int partitions = Math.max(1, seckillProperties.getOrder().getPartitions());
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            for (SeckillVoucher seckillVoucher : seckillVouchers) {
+                Long voucherId = seckillVoucher.getVoucherId();
+                //1. 库存
+                Map<String, String> stocks = SeckillStockUtils.splitStock(voucherId, seckillVoucher.getStock(), segments, partitions);
+                stocks.forEach((key, stock) -> {
+                    if (overwriteStock) {
+                        conn.set(key, stock);
+                    } else {
+                        conn.setNX(key, stock);
+                    }
+                });
+                //2. 时间窗口, 每个分段所在的slot各写一份, 秒杀结束一段时间后自动过期
+                if (seckillVoucher.getBeginTime() == null || seckillVoucher.getEndTime() == null) {
+                    continue;
+                }
+                long begin = toMillis(seckillVoucher.getBeginTime());
+                long end = toMillis(seckillVoucher.getEndTime());
+                Map<String, String> window = new HashMap<>(4);
+                window.put("begin", String.valueOf(begin));
+                window.put("end", String.valueOf(end));
+                Set<String> windowKeys = new LinkedHashSet<>();
+                for (int i = 0; i < segments; i++) {
+                    windowKeys.add(SeckillStockUtils.windowKey(voucherId, i, segments, partitions));
+                }
+                for (String key : windowKeys) {
+                    conn.hMSet(key, window);
+                    conn.pExpireAt(key, end + WINDOW_KEEP_MILLIS);
+                }
+                windows.put(voucherId, new long[]{begin, end});
+            }
+            return null;
+        });
+        //3. 库存已经写入, 清除各节点的售罄标记; 确实卖完的券下一次请求会重新标记
+        for (SeckillVoucher seckillVoucher : seckillVouchers) {
+            soldOutRegistry.clear(seckillVoucher.getVoucherId());
+        }
+    }
+
+    @Override
+    public int checkWindow(Long voucherId) {
+        long[] window = windows.get(voucherId);
+        if (window == null) {
+            window = loadWindow(voucherId);
+            if (window == null) {
+                return 0;
+            }
+            windows.put(voucherId, window);
+        }
+        long now = System.currentTimeMillis();
+        if (now < window[0]) {
+            return 3;
+        }
+        return now > window[1] ? 4 : 0;
+    }
+
+    /**
+     * 从redis读取时间窗口, 各分段的副本内容相同, 读第0段的; 不存在或读取失败时返回null, 不缓存,
+     * 避免不存在的券id撑大本地缓存
+     */
+    private long[] loadWindow(Long voucherId) {
+        int segments = Math.max(1, seckillProperties.getStockSegments());
+        int partitions = Math.max(1, seckillProperties.getOrder().getPartitions());
+        String key = SeckillStockUtils.windowKey(voucherId, 0, segments, partitions);
+        try {
+            List<Object> values = stringRedisTemplate.opsForHash().multiGet(key, Arrays.asList("begin", "end"));
+            if (values.size() < 2 || values.get(0) == null || values.get(1) == null) {
+                return null;
+            }
+            return new long[]{Long.parseLong(values.get(0).toString()), Long.parseLong(values.get(1).toString())};
+        } catch (Exception e) {
+            log.warn("读取券{}的时间窗口失败, 交给秒杀脚本判断", voucherId, e);
+            return null;
+        }
+    }
+
+    private static long toMillis(LocalDateTime time) {
+        return time.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
 }
@@ -1,19 +1,17 @@
 package com.hmdp.service.impl;
 
-import cn.hutool.json.JSONUtil;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.hmdp.dto.Result;
 import com.hmdp.entity.Shop;
 import com.hmdp.mapper.ShopMapper;
 import com.hmdp.service.IShopService;
 import com.hmdp.utils.CacheClient;
-import com.hmdp.utils.RedisData;
+import com.hmdp.utils.CacheInvalidator;
 import lombok.RequiredArgsConstructor;
-import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
-import java.time.LocalDateTime;
+import java.util.List;
 import java.util.concurrent.TimeUnit;
 
 import static com.hmdp.utils.RedisConstants.CACHE_SHOP_KEY;
@@ -30,7 +28,7 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
 
     private final CacheClient cacheClient;
 
-    private final StringRedisTemplate stringRedisTemplate;
+    private final CacheInvalidator cacheInvalidator;
 
     @Override
     public Result queryShopById(Long id) {
@@ -44,6 +42,14 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
         return Result.ok(shop);
     }
 
+    @Override
+    public Result queryShopByIds(List<Long> ids) {
+        // 一次MGET, 未命中的一次listByIds, 按请求顺序返回, 不存在的店铺为null
+        List<Shop> shops = cacheClient.queryBatchWithLogicalExpire(
+                CACHE_SHOP_KEY, ids, Shop.class, this::listByIds, Shop::getId, 20L, TimeUnit.SECONDS);
+        return Result.ok(shops);
+    }
+
     @Override
     @Transactional
     public Result updateShop(Shop shop) {
@@ -54,8 +60,8 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
         //1. 更新数据库
         updateById(shop);
 
-        //2. 删除缓存
-        stringRedisTemplate.delete(CACHE_SHOP_KEY + shopId );
+        //2. 事务提交后异步删除缓存(含延迟双删和失败重试), 同时通知各节点清除一级缓存
+        cacheInvalidator.invalidate(CACHE_SHOP_KEY + shopId);
 
         return Result.ok();
     }
@@ -65,14 +71,8 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
         //1. 查询店铺数据
         Shop shop = getById(id);
 
-        //2. 封装逻辑过期时间
-        RedisData<Shop> redisData = new RedisData<>();
-        redisData.setData(shop);
-        //  将expireSeconds与当前时间相加
-        redisData.setExpireTime(LocalDateTime.now().plusSeconds(expireSeconds));
-
-        //3. 写入Redis
-        stringRedisTemplate.opsForValue().set(CACHE_SHOP_KEY + id, JSONUtil.toJsonStr(redisData));
+        //2. 按逻辑过期写入Redis, 与queryWithLogicalExpire使用相同的编码
+        cacheClient.setWithLogicalExpire(CACHE_SHOP_KEY + id, shop, expireSeconds, TimeUnit.SECONDS);
     }
 }
 
@@ -7,6 +7,7 @@ import com.hmdp.dto.Result;
 import com.hmdp.entity.ShopType;
 import com.hmdp.mapper.ShopTypeMapper;
 import com.hmdp.service.IShopTypeService;
+import com.hmdp.utils.CacheMetrics;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Service;
@@ -28,25 +29,38 @@ public class ShopTypeServiceImpl extends ServiceImpl<ShopTypeMapper, ShopType> i
 
     private StringRedisTemplate stringRedisTemplate;
 
+    private CacheMetrics cacheMetrics;
+
     @Autowired
-    public ShopTypeServiceImpl(StringRedisTemplate stringRedisTemplate) {
+    public ShopTypeServiceImpl(StringRedisTemplate stringRedisTemplate, CacheMetrics cacheMetrics) {
         this.stringRedisTemplate = stringRedisTemplate;
+        this.cacheMetrics = cacheMetrics;
     }
 
     @Override
     public Result queryTypeList() {
+        CacheMetrics.Meters meters = cacheMetrics.of(CACHE_SHOP_TYPE_KEY);
         //1. 从redis查询商铺缓存
+        long start = System.nanoTime();
         String shopTypeJson = stringRedisTemplate.opsForValue().get(CACHE_SHOP_TYPE_KEY);
+        meters.redisGet(start);
 
         //2. 判断是否存在
         if(CharSequenceUtil.isNotBlank(shopTypeJson)){
             //3. 如果存在,则返回
+            meters.hit();
+            start = System.nanoTime();
             List<ShopType> shopTypes = JSONUtil.toList(shopTypeJson, ShopType.class);
+            meters.decode(start);
             return Result.ok(shopTypes);
         }
 
         //4. 不存在,根据id查询数据库
+        meters.miss();
+        start = System.nanoTime();
         List<ShopType> typeList = query().orderByAsc("sort").list();
+        meters.dbLoad(start);
+        meters.rebuilt(1);
 
         //5. 不存在,返回错误
         if(typeList.toString()==null){
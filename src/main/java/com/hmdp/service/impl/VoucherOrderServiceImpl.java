@@ -1,33 +1,57 @@
 package com.hmdp.service.impl;
 
 import cn.hutool.core.bean.BeanUtil;
+import cn.hutool.core.net.NetUtil;
+import cn.hutool.core.text.CharSequenceUtil;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.hmdp.config.SeckillProperties;
+import com.hmdp.dto.OrderPendingStats;
+import com.hmdp.dto.OrderStatusDTO;
 import com.hmdp.dto.Result;
+import com.hmdp.dto.StreamPartitionStats;
+import com.hmdp.entity.SeckillVoucher;
 import com.hmdp.entity.VoucherOrder;
 import com.hmdp.mapper.VoucherOrderMapper;
 import com.hmdp.service.ISeckillVoucherService;
 import com.hmdp.service.IVoucherOrderService;
+import com.hmdp.utils.LocalOrderPipeline;
+import com.hmdp.utils.OrderPartitionLeases;
+import com.hmdp.utils.OrderStatusRegistry;
+import com.hmdp.utils.PendingOrderRecovery;
 import com.hmdp.utils.RedisIdWorker;
+import com.hmdp.utils.SeckillStockUtils;
+import com.hmdp.utils.SoldOutRegistry;
 import com.hmdp.utils.UserHolder;
+import io.micrometer.core.instrument.MeterRegistry;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import org.redisson.api.RLock;
-import org.redisson.api.RedissonClient;
-import org.springframework.aop.framework.AopContext;
+import org.springframework.context.annotation.Lazy;
 import org.springframework.core.io.ClassPathResource;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.connection.RedisZSetCommands;
 import org.springframework.data.redis.connection.stream.*;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.data.redis.core.script.DefaultRedisScript;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.interceptor.TransactionAspectSupport;
+import org.springframework.web.context.request.async.DeferredResult;
 
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
 import java.time.Duration;
-import java.util.Collections;
-import java.util.List;
-import java.util.Map;
+import java.util.*;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
 
 /**
  * <p>
@@ -40,7 +64,6 @@ import java.util.concurrent.Executors;
 public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, VoucherOrder> implements IVoucherOrderService {
 
     private static final DefaultRedisScript<Long> SECKILL_SCRIPT;
-    private static final ExecutorService SECKILL_ORDER_EXECUTOR = Executors.newSingleThreadExecutor();
 
     static {
         SECKILL_SCRIPT = new DefaultRedisScript<>();
@@ -51,172 +74,649 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
     private final ISeckillVoucherService seckillVoucherService;
     private final RedisIdWorker redisIdWorker;
     private final StringRedisTemplate stringRedisTemplate;
-    private final RedissonClient redissonClient;
+    private final SeckillProperties seckillProperties;
+    private final SoldOutRegistry soldOutRegistry;
+    private final PendingOrderRecovery pendingOrderRecovery;
+    private final OrderStatusRegistry orderStatusRegistry;
+    private final LocalOrderPipeline localOrderPipeline;
+    private final OrderPartitionLeases orderPartitionLeases;
+    private final MeterRegistry meterRegistry;
+
+    /**
+     * 自身的代理对象, 消费线程启动时就可能要处理pending-list, 不能等到第一次秒杀请求再去获取
+     */
+    @Lazy
+    @Resource
     private IVoucherOrderService proxy;
 
+    /**
+     * 已创建的订单数, 用于统计吞吐量
+     */
+    private final AtomicLong createdOrders = new AtomicLong();
+
+    /**
+     * 已处理的订单数和写库总耗时, 用于统计每单的平均下单耗时
+     */
+    private final AtomicLong handledOrders = new AtomicLong();
+    private final AtomicLong createNanos = new AtomicLong();
+
+    /**
+     * 上次打印吞吐量的时间和当时的订单数
+     */
+    private long lastStatsTime = System.currentTimeMillis();
+    private long lastStatsCount = 0;
+    private long lastStatsHandled = 0;
+    private long lastStatsNanos = 0;
+
+    /**
+     * 本节点的消费线程池, 每个线程是消费者组里一个独立的消费者
+     */
+    private ExecutorService seckillOrderExecutor;
+
+    private volatile boolean running = true;
+
     @PostConstruct
-    private void init() {
-        SECKILL_ORDER_EXECUTOR.submit(new VoucherOrderHandler());
+    private void init() throws IOException {
+        SeckillProperties.Order config = seckillProperties.getOrder();
+        if (config.getMode() == SeckillProperties.Order.Mode.LOCAL) {
+            // 本地下单模式, 不使用stream.orders
+            localOrderPipeline.start(this::handleOrders);
+            return;
+        }
+
+        //1. 为每个分区创建消费者组, 已存在则忽略
+        List<String> streamKeys = config.streamKeys();
+        for (String streamKey : streamKeys) {
+            createGroupIfAbsent(streamKey, config.getGroup());
+        }
+
+        //2. 按配置的线程数启动消费者, 消费者名称在所有节点间唯一
+        //   分区模式下每个分区在本节点只由一个线程消费, 且只有持有该分区租约的节点消费,
+        //   保证同一张券的订单在整个集群内按顺序处理, 不同分区之间并行
+        int threads = Math.max(1, config.getConsumerThreads());
+        if (streamKeys.size() > 1) {
+            threads = Math.min(threads, streamKeys.size());
+        }
+        String instanceId = resolveInstanceId(config.getInstanceId());
+        if (streamKeys.size() > 1) {
+            orderPartitionLeases.start(instanceId, streamKeys);
+        }
+        seckillOrderExecutor = Executors.newFixedThreadPool(threads);
+        for (int i = 0; i < threads; i++) {
+            List<String> owned = new ArrayList<>();
+            for (int p = 0; p < streamKeys.size(); p++) {
+                if (streamKeys.size() == 1 || p % threads == i) {
+                    owned.add(streamKeys.get(p));
+                }
+            }
+            seckillOrderExecutor.submit(new VoucherOrderHandler(instanceId + "-" + i, owned, streamKeys.size() > 1));
+        }
+        log.info("订单消费者已启动, 实例id: {}, 线程数: {}, 分区数: {}", instanceId, threads, streamKeys.size());
+    }
+
+    @PreDestroy
+    private void destroy() throws InterruptedException {
+        running = false;
+        if (seckillOrderExecutor != null) {
+            seckillOrderExecutor.shutdown();
+            // 等待当前批次处理完, 之后分区租约才会释放, 避免其他节点接管后与本节点同时处理同一分区
+            seckillOrderExecutor.awaitTermination(10, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * XGROUP CREATE key group 0 MKSTREAM
+     */
+    private void createGroupIfAbsent(String key, String group) {
+        try {
+            stringRedisTemplate.execute((RedisCallback<String>) connection ->
+                    connection.streamCommands().xGroupCreate(key.getBytes(StandardCharsets.UTF_8), group, ReadOffset.from("0"), true));
+            log.info("创建消费者组 {} -> {}", key, group);
+        } catch (Exception e) {
+            // BUSYGROUP, 说明消费者组已经存在
+            log.debug("消费者组 {} -> {} 已存在", key, group);
+        }
+    }
+
+    /**
+     * 未配置实例id时使用 主机名-进程号, 保证多个节点的消费者名称不会重复
+     */
+    private static String resolveInstanceId(String configured) {
+        if (CharSequenceUtil.isNotBlank(configured)) {
+            return configured;
+        }
+        // 格式为 pid@hostname
+        String[] jvmName = ManagementFactory.getRuntimeMXBean().getName().split("@", 2);
+        String host = jvmName.length > 1 ? jvmName[1] : NetUtil.getLocalHostName();
+        return host + "-" + jvmName[0];
     }
 
     @Override
     public Result seckillVoucher(Long voucherId) {
 
+        //已经售罄的券直接在本地拒绝, 不再访问redis
+        if (soldOutRegistry.isSoldOut(voucherId)) {
+            return Result.fail("库存不足");
+        }
+        //本地已知时间窗口的券, 未开始或已结束直接拒绝, 不再生成订单id
+        int w = seckillVoucherService.checkWindow(voucherId);
+        if (w != 0) {
+            return Result.fail(failMessage(w));
+        }
+
         //获取用户
         Long userId = UserHolder.getUser().getId();
         //获取订单Id
         long orderId = redisIdWorker.nextId("order");
 
-        //1. 执行lua脚本
-        Long result = stringRedisTemplate.execute(
-                SECKILL_SCRIPT,
-                Collections.emptyList(),
-                voucherId.toString(), userId.toString(), String.valueOf(orderId)
-        );
-        int r = result.intValue();
+        //1. 执行lua脚本, 本地下单模式不写stream
+        boolean local = seckillProperties.getOrder().getMode() == SeckillProperties.Order.Mode.LOCAL;
+        int r = executeSeckillScript(voucherId, userId, orderId, !local);
         //2. 判断结果是为0
+        if (r == 1) {
+            // 2.1 库存不足, 本地标记售罄并通知其他节点
+            soldOutRegistry.markSoldOut(voucherId);
+        }
         if (r != 0) {
-            // 2.1 不为0,代表没有购买资格
-            return Result.fail(r == 1 ? "库存不足" : "不能重复下单");
+            // 2.2 不为0,代表没有购买资格
+            return Result.fail(failMessage(r));
         }
 
-        //3. 获取代理对象
-        proxy = (IVoucherOrderService) AopContext.currentProxy();
+        //2.3 订单状态置为PENDING, 等待异步写入数据库
+        orderStatusRegistry.markPending(orderId, userId);
+
+        //2.4 本地下单模式, 写入预写日志和环形缓冲区
+        if (local) {
+            localOrderPipeline.publish(orderId, userId, voucherId);
+        }
 
-        //4. 返回订单Id
+        //3. 返回订单Id
         return Result.ok(orderId);
     }
 
-    private void handleVoucherOrder(VoucherOrder voucherOrder) {
-        //1. 获取用户
-        Long voucherOrder1 = voucherOrder.getUserId();
-
-        //2. 创建锁对象
-        RLock lock = redissonClient.getLock("order:" + voucherOrder1);
+    @Override
+    public Result queryOrderStatus(Long orderId) {
+        OrderStatusDTO status = orderStatusRegistry.get(orderId, UserHolder.getUser().getId());
+        if (status == null) {
+            return Result.fail("订单不存在或已过期");
+        }
+        return Result.ok(status);
+    }
 
-        //3. 获取锁
-        boolean isLock = lock.tryLock();
+    @Override
+    public DeferredResult<Result> waitOrderStatus(Long orderId, long timeoutMillis) {
+        return orderStatusRegistry.await(orderId, UserHolder.getUser().getId(), timeoutMillis);
+    }
 
-        //4. 判断是否获取成功
-        if (!isLock) {
-            log.error("不允许重复下单");
-            return;
+    /**
+     * 从用户所在的分段开始依次在各库存分段上执行seckill.lua, 分段卖完(返回1)或库存key不存在(返回5)时尝试下一段;
+     * 每次调用只访问一个分段所在slot的key, 可以在redis集群中执行
+     * @return seckill.lua的返回值; 没有分段能下单时, 有分段的库存key不存在返回5, 否则返回1
+     */
+    private int executeSeckillScript(Long voucherId, Long userId, long orderId, boolean withStream) {
+        int segments = Math.max(1, seckillProperties.getStockSegments());
+        int partitions = Math.max(1, seckillProperties.getOrder().getPartitions());
+        int start = (int) (userId % segments);
+        int r = 1;
+        boolean missing = false;
+        for (int i = 0; i < segments && (r == 1 || r == 5); i++) {
+            int segment = (start + i) % segments;
+            Long result = stringRedisTemplate.execute(
+                    SECKILL_SCRIPT,
+                    SeckillStockUtils.scriptKeys(voucherId, segment, segments, partitions, withStream),
+                    voucherId.toString(), userId.toString(), String.valueOf(orderId)
+            );
+            r = result.intValue();
+            missing |= r == 5;
         }
+        return r == 1 && missing ? 5 : r;
+    }
 
-        try {
-            //创建订单
-            proxy.createVoucherOrder(voucherOrder);
-        } finally {
-            //释放锁
-            lock.unlock();
+    /**
+     * seckill.lua返回值对应的提示
+     */
+    private static String failMessage(int r) {
+        switch (r) {
+            case 1:
+                return "库存不足";
+            case 2:
+                return "不能重复下单";
+            case 3:
+                return "秒杀尚未开始";
+            case 4:
+                return "秒杀已经结束";
+            case 5:
+                return "库存尚未就绪, 请稍后再试";
+            default:
+                return "秒杀失败";
         }
-
     }
-    @Transactional
-    public void createVoucherOrder(VoucherOrder voucherOrder) {
-
-        //5. 一人一单
-        Long userId = voucherOrder.getId();
 
-        //5.1 查询订单
-        Long count = query().eq("user_id", userId).eq("voucher_id", voucherOrder.getVoucherId()).count();
-
-        //5.2 判断是否存在
-        if (count > 0) {
-            // 用户已经购买过了
-            log.error("用户已经购买过一次了! ");
-            return;
+    /**
+     * 幂等创建单个订单, 依赖 tb_voucher_order 上 (user_id, voucher_id) 的唯一索引保证一人一单,
+     * 不需要分布式锁, 也不需要先查询订单数
+     */
+    @Override
+    @Transactional
+    public String createVoucherOrder(VoucherOrder voucherOrder) {
+        //1. 插入订单, 违反唯一约束时区分是同一订单被重复投递, 还是该用户已经用另一个订单买过这张券
+        try {
+            getBaseMapper().insertBatch(Collections.singletonList(voucherOrder));
+        } catch (DuplicateKeyException e) {
+            if (getById(voucherOrder.getId()) != null) {
+                // 提交后、ACK之前宕机, 被认领或预写日志重放的同一订单, 已经创建成功
+                log.info("订单{}已经创建过, 忽略重复投递", voucherOrder.getId());
+                return null;
+            }
+            log.error("用户{}已经购买过一次券{}了! ", voucherOrder.getUserId(), voucherOrder.getVoucherId());
+            return "不能重复下单";
         }
-        //6. 扣减库存
+
+        //2. 扣减库存
         boolean update = seckillVoucherService.update()
                 .setSql("stock=stock-1")
                 .eq("voucher_id", voucherOrder.getVoucherId())
                 .gt("stock", 0)
                 .update();
         if (!update) {
+            // 库存不足, 回滚刚插入的订单
             log.error("库存不足");
+            TransactionAspectSupport.currentTransactionStatus().setRollbackOnly();
+            return "库存不足";
+        }
+        return null;
+    }
+
+    @Override
+    @Transactional
+    public Map<Long, String> createVoucherOrders(List<VoucherOrder> voucherOrders) {
+        Map<Long, String> failures = new HashMap<>();
+
+        //1. 过滤同一批内的重复订单
+        Set<String> seen = new HashSet<>();
+        List<VoucherOrder> toSave = new ArrayList<>(voucherOrders.size());
+        for (VoucherOrder voucherOrder : voucherOrders) {
+            if (!seen.add(voucherOrder.getUserId() + ":" + voucherOrder.getVoucherId())) {
+                failures.put(voucherOrder.getId(), "不能重复下单");
+                continue;
+            }
+            toSave.add(voucherOrder);
+        }
+
+        if (toSave.isEmpty()) {
+            return failures;
+        }
+
+        //2. 一条多行INSERT保存订单, 唯一索引保证一人一单
+        try {
+            getBaseMapper().insertBatch(toSave);
+        } catch (DuplicateKeyException e) {
+            // 整条INSERT没有生效。先去掉已经创建过的订单(重复投递, 视为成功), 其余的再插入一次
+            Set<Long> created = listByIds(toSave.stream().map(VoucherOrder::getId).collect(Collectors.toList()))
+                    .stream().map(VoucherOrder::getId).collect(Collectors.toSet());
+            toSave.removeIf(o -> created.contains(o.getId()));
+            if (toSave.isEmpty()) {
+                return failures;
+            }
+            try {
+                getBaseMapper().insertBatch(toSave);
+            } catch (DuplicateKeyException again) {
+                // 仍有订单与该用户的另一个订单重复, 不知道是哪几条, 回滚后由调用方逐单幂等创建
+                TransactionAspectSupport.currentTransactionStatus().setRollbackOnly();
+                return null;
+            }
+        }
+
+        //3. 每张券一次聚合扣减库存 stock = stock - k, 库存不足k时扣减剩余的库存, 只有超出的订单失败
+        Map<Long, List<VoucherOrder>> ordersOfVoucher = toSave.stream()
+                .collect(Collectors.groupingBy(VoucherOrder::getVoucherId, LinkedHashMap::new, Collectors.toList()));
+        ordersOfVoucher.forEach((voucherId, orders) -> {
+            int k = orders.size();
+            int deducted = deductStock(voucherId, k);
+            if (deducted < k) {
+                // 按stream中的顺序, 先到的订单拿到库存
+                List<VoucherOrder> rejected = orders.subList(deducted, k);
+                log.error("券{}库存不足, 本批{}单中{}单丢弃", voucherId, k, rejected.size());
+                removeByIds(rejected.stream().map(VoucherOrder::getId).collect(Collectors.toList()));
+                rejected.forEach(o -> failures.put(o.getId(), "库存不足"));
+            }
+        });
+        return failures;
+    }
+
+    /**
+     * 扣减券的库存, 不足k时扣减剩余的全部库存
+     * @return 实际扣减的数量
+     */
+    private int deductStock(Long voucherId, int k) {
+        int n = k;
+        while (n > 0) {
+            boolean update = seckillVoucherService.update()
+                    .setSql("stock = stock - " + n)
+                    .eq("voucher_id", voucherId)
+                    .ge("stock", n)
+                    .update();
+            if (update) {
+                return n;
+            }
+            // 读取当前库存后重试; 其他消费者同时扣减时库存可能继续减少, 每次至少少扣一单, 循环一定结束
+            SeckillVoucher seckillVoucher = seckillVoucherService.getById(voucherId);
+            int stock = seckillVoucher == null || seckillVoucher.getStock() == null ? 0 : seckillVoucher.getStock();
+            n = Math.min(n - 1, stock);
+        }
+        return 0;
+    }
+
+    @Override
+    public Result queryPartitionStats() {
+        SeckillProperties.Order config = seckillProperties.getOrder();
+        List<String> streamKeys = config.streamKeys();
+        List<StreamPartitionStats> statsList = new ArrayList<>(streamKeys.size());
+        for (int i = 0; i < streamKeys.size(); i++) {
+            String streamKey = streamKeys.get(i);
+            StreamPartitionStats stats = new StreamPartitionStats();
+            stats.setPartition(i);
+            stats.setStream(streamKey);
+            stats.setLength(stringRedisTemplate.opsForStream().size(streamKey));
+            // XINFO GROUPS
+            stringRedisTemplate.opsForStream().groups(streamKey).stream()
+                    .filter(group -> config.getGroup().equals(group.groupName()))
+                    .findFirst()
+                    .ifPresent(group -> {
+                        stats.setPending(group.pendingCount());
+                        stats.setConsumers(group.consumerCount());
+                        stats.setLastDeliveredId(group.lastDeliveredId());
+                        stats.setLag(countAfter(streamKey, group.lastDeliveredId(), config.getLagScanLimit()));
+                    });
+            statsList.add(stats);
+        }
+        return Result.ok(statsList);
+    }
+
+    @Override
+    public Result queryPendingStats() {
+        SeckillProperties.Order config = seckillProperties.getOrder();
+        Map<String, Long> pending = new LinkedHashMap<>();
+        long total = 0;
+        for (String streamKey : config.streamKeys()) {
+            // XPENDING key group
+            PendingMessagesSummary summary = stringRedisTemplate.opsForStream().pending(streamKey, config.getGroup());
+            long count = summary == null ? 0 : summary.getTotalPendingMessages();
+            pending.put(streamKey, count);
+            total += count;
+        }
+        OrderPendingStats stats = new OrderPendingStats();
+        stats.setPending(pending);
+        stats.setTotalPending(total);
+        stats.setDeadLetters(pendingOrderRecovery.deadLetterSize());
+        return Result.ok(stats);
+    }
+
+    /**
+     * 统计id之后的消息数(不含id本身), 最多扫描limit条
+     */
+    private long countAfter(String streamKey, String lastId, int limit) {
+        RecordId last = RecordId.of(lastId);
+        String start = last.getTimestamp() + "-" + (last.getSequence() + 1);
+        List<MapRecord<String, Object, Object>> records = stringRedisTemplate.opsForStream()
+                .range(streamKey, Range.rightUnbounded(Range.Bound.inclusive(start)), RedisZSetCommands.Limit.limit().count(limit));
+        return records == null ? 0 : records.size();
+    }
+
+    /**
+     * 打印本节点所有消费线程合计的下单吞吐量
+     */
+    private synchronized void reportThroughput() {
+        long now = System.currentTimeMillis();
+        long elapsed = now - lastStatsTime;
+        if (elapsed < seckillProperties.getOrder().getStatsInterval().toMillis()) {
             return;
         }
+        long count = createdOrders.get();
+        long handled = handledOrders.get();
+        long nanos = createNanos.get();
+        if (handled > lastStatsHandled) {
+            log.info("订单消费吞吐量: {} 单/秒, 平均每单写库耗时: {} 微秒",
+                    (count - lastStatsCount) * 1000 / elapsed,
+                    (nanos - lastStatsNanos) / 1000 / (handled - lastStatsHandled));
+        }
+        lastStatsTime = now;
+        lastStatsCount = count;
+        lastStatsHandled = handled;
+        lastStatsNanos = nanos;
+    }
 
-        //7 创建订单
-        save(voucherOrder);
+    /**
+     * 下单并写入每个订单的处理结果, stream模式和本地下单模式共用
+     */
+    private void handleOrders(List<VoucherOrder> voucherOrders) {
+        long begin = System.nanoTime();
+        Map<Long, String> failures = null;
+        if (seckillProperties.getOrder().getBatchSize() > 1) {
+            failures = proxy.createVoucherOrders(voucherOrders);
+        }
+        if (failures == null) {
+            // 逐单下单, 或批量中有重复订单需要逐单幂等处理
+            failures = new HashMap<>();
+            for (VoucherOrder voucherOrder : voucherOrders) {
+                String reason = proxy.createVoucherOrder(voucherOrder);
+                if (reason != null) {
+                    failures.put(voucherOrder.getId(), reason);
+                }
+            }
+        }
+        long elapsed = System.nanoTime() - begin;
+        createNanos.addAndGet(elapsed);
+        handledOrders.addAndGet(voucherOrders.size());
+        // 每批记录一次, 逐单下单时一批就是一单
+        meterRegistry.timer("hmdp.seckill.order.create").record(elapsed, TimeUnit.NANOSECONDS);
+        createdOrders.addAndGet(voucherOrders.size() - failures.size());
+        reportThroughput();
+
+        //写入每个订单的处理结果, 供客户端轮询
+        orderStatusRegistry.saveResults(voucherOrders, failures);
     }
 
     private class VoucherOrderHandler implements Runnable {
 
-        String queueName = "stream.orders";
+        /**
+         * 分配给本线程的分区stream
+         */
+        private final List<String> assigned;
+
+        /**
+         * 分区模式下需要持有分区租约才能消费
+         */
+        private final boolean leased;
+
+        /**
+         * 本线程当前消费的分区stream, 分区模式下是assigned中本节点持有租约的部分
+         */
+        private List<String> queueNames;
+
+        private final Consumer consumer;
+
+        /**
+         * 连续处理失败的次数, 决定重试pending-list之前的退避时间, 处理成功后清零
+         */
+        private int failures = 0;
+
+        /**
+         * 上次扫描消费者组pending消息的时间
+         */
+        private long lastClaimTime = 0;
+
+        VoucherOrderHandler(String consumerName, List<String> assigned, boolean leased) {
+            this.consumer = Consumer.from(seckillProperties.getOrder().getGroup(), consumerName);
+            this.assigned = assigned;
+            this.leased = leased;
+            this.queueNames = leased ? Collections.emptyList() : assigned;
+        }
 
         @Override
         public void run() {
-            while (true) {
+            while (running) {
                 try {
-                    //1. 获取消息队列中的订单信息 XREADGROUP GROUP g1 c1 COUNT 1 BLOCK 2000 STREAMS s1 >
-                    List<MapRecord<String, Object, Object>> list = stringRedisTemplate.opsForStream().read(
-                            Consumer.from("g1", "c1"),
-                            StreamReadOptions.empty().count(1).block(Duration.ofSeconds(2)),
-                            StreamOffset.create(queueName, ReadOffset.lastConsumed())
-                    );
-
-                    //2. 判断是否获取成功
-                    if (list == null || list.isEmpty()) {
-                        // 如果为null, 说明没有消息, 继续下一次循环
+                    //0. 分区模式下先按租约更新要消费的分区, 一个都没有时等待
+                    if (leased && !refreshPartitions()) {
+                        TimeUnit.SECONDS.sleep(1);
                         continue;
                     }
 
-                    // 解析数据
-                    MapRecord<String, Object, Object> record = list.get(0);
-                    Map<Object, Object> value = record.getValue();
-                    VoucherOrder voucherOrder = BeanUtil.fillBeanWithMap(value, new VoucherOrder(), true);
+                    //0.1 定期接管其他消费者(可能已宕机)空闲过久的pending消息
+                    claimIdlePending();
 
-                    //3. 如果获取成功, 可以下单
-                    handleVoucherOrder(voucherOrder);
+                    //1. 获取消息队列中的订单信息 XREADGROUP GROUP g1 c1 COUNT n BLOCK 2000 STREAMS stream.orders:0 ... > ...
+                    List<MapRecord<String, Object, Object>> list = readBatch(ReadOffset.lastConsumed());
 
-                    //4. ACK确认
-                    stringRedisTemplate.opsForStream().acknowledge("s1", "g1", record.getId());
+                    //2. 判断是否获取成功
+                    if (list.isEmpty()) {
+                        // 如果为空, 说明没有消息, 继续下一次循环
+                        continue;
+                    }
+
+                    //3. 如果获取成功, 可以下单, 并整批ACK
+                    handleRecords(list);
+                    failures = 0;
                 } catch (Exception e) {
                     log.error("处理订单异常", e);
-                    handlePendingList();
+                    handlePendingList(++failures);
+                } finally {
+                    reportThroughput();
                 }
             }
 
         }
 
-        private void handlePendingList() {
-            while (true) {
-                try {
-                    //1. 获取pending-list中的订单信息 XREADGROUP GROUP g1 c1 COUNT 1 BLOCK 2000 STREAMS s1 >
-                    List<MapRecord<String, Object, Object>> read = stringRedisTemplate.opsForStream().read(
-                            Consumer.from("g1", "c1"),
-                            StreamReadOptions.empty().count(1),
-                            StreamOffset.create(queueName, ReadOffset.from("0"))
-                    );
+        /**
+         * 在两批之间释放等待释放的分区并取得本节点持有的分区; 新获得的分区先认领前一个持有者留下的pending消息,
+         * 前一个持有者宕机时它们已经空闲了至少一个租约期
+         * @return 是否还有可以消费的分区
+         */
+        private boolean refreshPartitions() {
+            List<String> owned = orderPartitionLeases.owned(assigned);
+            for (String queueName : owned) {
+                if (!queueNames.contains(queueName)) {
+                    pendingOrderRecovery.recover(queueName, consumer, false,
+                            seckillProperties.getOrder().getPartitionLeaseTtl(), this::handleRecords);
+                }
+            }
+            queueNames = owned;
+            return !owned.isEmpty();
+        }
 
-                    //2. 判断是否获取成功
-                    if (read == null || read.isEmpty()) {
-                        // 如果为null, 说明pending-list没有消息, 结束
-                        break;
-                    }
+        /**
+         * 读取一批消息: 第一次阻塞等待, 拿到消息后在maxLinger内继续攒批, 直到满batchSize
+         */
+        private List<MapRecord<String, Object, Object>> readBatch(ReadOffset offset) {
+            SeckillProperties.Order config = seckillProperties.getOrder();
+            int batchSize = Math.max(1, config.getBatchSize());
+            List<MapRecord<String, Object, Object>> batch = new ArrayList<>(batchSize);
+
+            List<MapRecord<String, Object, Object>> first = read(offset, batchSize, Duration.ofSeconds(2));
+            if (first == null || first.isEmpty()) {
+                return batch;
+            }
+            batch.addAll(first);
+
+            long deadline = System.currentTimeMillis() + config.getMaxLinger().toMillis();
+            while (batch.size() < batchSize) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    break;
+                }
+                List<MapRecord<String, Object, Object>> more =
+                        read(offset, batchSize - batch.size(), Duration.ofMillis(remaining));
+                if (more == null || more.isEmpty()) {
+                    break;
+                }
+                batch.addAll(more);
+            }
+            return batch;
+        }
 
-                    // 解析数据
-                    MapRecord<String, Object, Object> entries = read.get(0);
-                    Map<Object, Object> value = entries.getValue();
-                    VoucherOrder voucherOrder = BeanUtil.fillBeanWithMap(value, new VoucherOrder(), true);
+        @SuppressWarnings("unchecked")
+        private List<MapRecord<String, Object, Object>> read(ReadOffset offset, int count, Duration block) {
+            StreamReadOptions options = StreamReadOptions.empty().count(count);
+            if (block != null) {
+                options = options.block(block);
+            }
+            StreamOffset<String>[] offsets = queueNames.stream()
+                    .map(queueName -> StreamOffset.create(queueName, offset))
+                    .toArray(StreamOffset[]::new);
+            return stringRedisTemplate.opsForStream().read(
+                    consumer,
+                    options,
+                    offsets
+            );
+        }
+
+        /**
+         * 下单并整批ACK, batchSize为1时逐条下单
+         */
+        private void handleRecords(List<MapRecord<String, Object, Object>> records) {
+            // 解析数据
+            List<VoucherOrder> voucherOrders = new ArrayList<>(records.size());
+            for (MapRecord<String, Object, Object> record : records) {
+                Map<Object, Object> value = record.getValue();
+                voucherOrders.add(BeanUtil.fillBeanWithMap(value, new VoucherOrder(), true));
+            }
 
-                    //3. 如果获取成功, 可以下单
-                    handleVoucherOrder(voucherOrder);
+            handleOrders(voucherOrders);
+
+            //ACK确认, 每个分区一次XACK确认整批消息
+            records.stream()
+                    .collect(Collectors.groupingBy(MapRecord::getStream,
+                            Collectors.mapping(MapRecord::getId, Collectors.toList())))
+                    .forEach((queueName, ids) -> stringRedisTemplate.opsForStream()
+                            .acknowledge(queueName, consumer.getGroup(), ids.toArray(new RecordId[0])));
+        }
+
+        /**
+         * 定期扫描整个消费者组空闲过久的pending消息(例如宕机节点留下的), 认领后重新下单
+         */
+        private void claimIdlePending() {
+            SeckillProperties.Order config = seckillProperties.getOrder();
+            long now = System.currentTimeMillis();
+            if (now - lastClaimTime < config.getClaimInterval().toMillis()) {
+                return;
+            }
+            lastClaimTime = now;
 
-                    //4. ACK确认
-                    stringRedisTemplate.opsForStream().acknowledge("s1", "g1", entries.getId());
+            for (String queueName : queueNames) {
+                pendingOrderRecovery.recover(queueName, consumer, false, config.getClaimMinIdle(), this::handleRecords);
+            }
+        }
+
+        /**
+         * 下单出现异常后, 退避一段时间再重试自己pending-list中的消息; 超过最大投递次数的转入死信队列, 不会一直阻塞。
+         * 退避时间从pendingRetryBackoff开始每次失败翻倍, 最长pendingRetryMaxBackoff, 并作为XCLAIM的min-idle,
+         * 每次重试都会增加投递次数, 退避保证短暂的数据库故障不会让正常订单很快达到投递上限
+         * @param failures 连续失败的次数, 从1开始
+         */
+        private void handlePendingList(int failures) {
+            Duration backoff = pendingRetryBackoff(failures);
+            try {
+                TimeUnit.MILLISECONDS.sleep(backoff.toMillis());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            for (String queueName : queueNames) {
+                try {
+                    pendingOrderRecovery.recover(queueName, consumer, true, backoff, this::handleRecords);
                 } catch (Exception e) {
                     log.error("处理pendding订单异常", e);
-                    try {
-                        Thread.sleep(20);
-                    } catch (InterruptedException ex) {
-                        ex.printStackTrace();
-                    }
                 }
             }
+        }
 
+        private Duration pendingRetryBackoff(int failures) {
+            SeckillProperties.Order config = seckillProperties.getOrder();
+            long base = Math.max(1, config.getPendingRetryBackoff().toMillis());
+            long max = Math.max(base, config.getPendingRetryMaxBackoff().toMillis());
+            long backoff = base << Math.min(Math.max(0, failures - 1), 20);
+            return Duration.ofMillis(Math.min(backoff, max));
         }
 
     }
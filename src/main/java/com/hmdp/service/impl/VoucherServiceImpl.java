@@ -8,14 +8,12 @@ import com.hmdp.mapper.VoucherMapper;
 import com.hmdp.service.ISeckillVoucherService;
 import com.hmdp.service.IVoucherService;
 import lombok.RequiredArgsConstructor;
-import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
+import java.util.Collections;
 import java.util.List;
 
-import static com.hmdp.utils.RedisConstants.SECKILL_STOCK_KEY;
-
 /**
  * <p>
  *  服务实现类
@@ -28,8 +26,6 @@ import static com.hmdp.utils.RedisConstants.SECKILL_STOCK_KEY;
 @RequiredArgsConstructor
 public class VoucherServiceImpl extends ServiceImpl<VoucherMapper, Voucher> implements IVoucherService {
 
-    private final StringRedisTemplate stringRedisTemplate;
-
     private final ISeckillVoucherService seckillVoucherService;
 
     @Override
@@ -53,7 +49,7 @@ public class VoucherServiceImpl extends ServiceImpl<VoucherMapper, Voucher> impl
         seckillVoucher.setBeginTime(voucher.getBeginTime());
         seckillVoucher.setEndTime(voucher.getEndTime());
         seckillVoucherService.save(seckillVoucher);
-        // 保存到redis
-        stringRedisTemplate.opsForValue().set(SECKILL_STOCK_KEY + voucher.getId(),voucher.getStock().toString());
+        // 保存库存和秒杀时间窗口到redis, 开启分段时库存拆成多个子key, 并清除各节点的售罄标记
+        seckillVoucherService.saveToRedis(Collections.singletonList(seckillVoucher), true);
     }
 }
@@ -0,0 +1,34 @@
+package com.hmdp.utils;
+
+import com.hmdp.config.AdminProperties;
+import com.hmdp.dto.UserDTO;
+import org.springframework.web.servlet.HandlerInterceptor;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * 管理接口只允许 hmdp.admin.user-ids 中的用户访问, 需要排在登录拦截器之后
+ */
+public class AdminInterceptor implements HandlerInterceptor {
+
+    private final AdminProperties adminProperties;
+
+    public AdminInterceptor(AdminProperties adminProperties) {
+        this.adminProperties = adminProperties;
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) throws Exception {
+        UserDTO user = UserHolder.getUser();
+        if (user == null) {
+            response.setStatus(401);
+            return false;
+        }
+        if (!adminProperties.getUserIds().contains(user.getId())) {
+            response.setStatus(403);
+            return false;
+        }
+        return true;
+    }
+}
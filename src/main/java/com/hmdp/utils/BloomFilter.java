@@ -0,0 +1,163 @@
+package com.hmdp.utils;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.LongConsumer;
+
+/**
+ * 基于long id的布隆过滤器, 线程安全, 查询和写入都不加锁
+ *
+ * 位数组大小 m = -n·ln(p) / (ln2)², 哈希函数个数 k = m/n·ln2, n为预计元素数, p为期望误判率。
+ * 位数组可以与redis bitmap相互转换, redis中第i位是第 i/8 个字节的从高到低第 i%8 位, 与SETBIT/GETBIT一致。
+ */
+public class BloomFilter {
+
+    private final long bitSize;
+
+    private final int hashes;
+
+    private final AtomicLongArray words;
+
+    /**
+     * 写入过的元素数(含重复写入), 用于统计
+     */
+    private final AtomicLong insertions = new AtomicLong();
+
+    private BloomFilter(long bitSize, int hashes) {
+        this.bitSize = bitSize;
+        this.hashes = hashes;
+        this.words = new AtomicLongArray((int) ((bitSize + 63) >>> 6));
+    }
+
+    /**
+     * @param expectedInsertions 预计元素数
+     * @param fpp 期望误判率, 0到1之间
+     */
+    public static BloomFilter create(long expectedInsertions, double fpp) {
+        long n = Math.max(1, expectedInsertions);
+        double p = Math.min(Math.max(fpp, Double.MIN_VALUE), 0.5);
+        long m = Math.max(64, (long) Math.ceil(-n * Math.log(p) / (Math.log(2) * Math.log(2))));
+        // 位数组按字节存入redis, 取8的倍数
+        m = (m + 7) & ~7L;
+        int k = Math.max(1, (int) Math.round((double) m / n * Math.log(2)));
+        return new BloomFilter(m, k);
+    }
+
+    /**
+     * 写入一个元素
+     */
+    public void put(long value) {
+        forEachBit(value, this::setBit);
+        insertions.incrementAndGet();
+    }
+
+    /**
+     * 元素是否可能存在, 返回false时一定不存在
+     */
+    public boolean mightContain(long value) {
+        long h1 = mix(value);
+        long h2 = mix(h1 ^ 0x9E3779B97F4A7C15L) | 1;
+        for (int i = 0; i < hashes; i++) {
+            long index = ((h1 + i * h2) & Long.MAX_VALUE) % bitSize;
+            if ((words.get((int) (index >>> 6)) & (1L << index)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 元素对应的k个位的下标, 用于同步写入redis bitmap
+     */
+    public void forEachBit(long value, LongConsumer consumer) {
+        long h1 = mix(value);
+        long h2 = mix(h1 ^ 0x9E3779B97F4A7C15L) | 1;
+        for (int i = 0; i < hashes; i++) {
+            consumer.accept(((h1 + i * h2) & Long.MAX_VALUE) % bitSize);
+        }
+    }
+
+    /**
+     * 转换为redis bitmap的字节数组
+     */
+    public byte[] toBytes() {
+        byte[] bytes = new byte[(int) (bitSize >>> 3)];
+        for (int i = 0; i < bytes.length; i++) {
+            long word = words.get(i >>> 3);
+            int b = 0;
+            for (int t = 0; t < 8; t++) {
+                if ((word & (1L << (((i & 7) << 3) + t))) != 0) {
+                    b |= 0x80 >>> t;
+                }
+            }
+            bytes[i] = (byte) b;
+        }
+        return bytes;
+    }
+
+    /**
+     * 把redis bitmap合并进来(按位或), 用于同步其他节点写入的元素
+     */
+    public void merge(byte[] bytes) {
+        int length = (int) Math.min(bytes.length, bitSize >>> 3);
+        for (int i = 0; i < length; i++) {
+            int b = bytes[i] & 0xFF;
+            if (b == 0) {
+                continue;
+            }
+            for (int t = 0; t < 8; t++) {
+                if ((b & (0x80 >>> t)) != 0) {
+                    setBit(((long) i << 3) + t);
+                }
+            }
+        }
+    }
+
+    /**
+     * 按当前置位比例估算的误判率 (置位数/m)^k
+     */
+    public double estimatedFpp() {
+        return Math.pow((double) bitCount() / bitSize, hashes);
+    }
+
+    public long bitCount() {
+        long count = 0;
+        for (int i = 0; i < words.length(); i++) {
+            count += Long.bitCount(words.get(i));
+        }
+        return count;
+    }
+
+    public long getBitSize() {
+        return bitSize;
+    }
+
+    public int getHashes() {
+        return hashes;
+    }
+
+    public long getInsertions() {
+        return insertions.get();
+    }
+
+    private void setBit(long index) {
+        int w = (int) (index >>> 6);
+        long mask = 1L << index;
+        long old = words.get(w);
+        while ((old & mask) == 0 && !words.compareAndSet(w, old, old | mask)) {
+            old = words.get(w);
+        }
+    }
+
+    /**
+     * murmur3的64位finalizer
+     */
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
@@ -0,0 +1,41 @@
+package com.hmdp.utils;
+
+import com.baomidou.mybatisplus.core.metadata.TableInfo;
+import com.baomidou.mybatisplus.core.metadata.TableInfoHelper;
+import lombok.RequiredArgsConstructor;
+import org.apache.ibatis.executor.Executor;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.mapping.SqlCommandType;
+import org.apache.ibatis.plugin.Interceptor;
+import org.apache.ibatis.plugin.Intercepts;
+import org.apache.ibatis.plugin.Invocation;
+import org.apache.ibatis.plugin.Signature;
+
+/**
+ * 实体插入成功后把自增生成的id加入对应表的布隆过滤器, 任何通过mapper插入单个实体的地方都会生效
+ */
+@RequiredArgsConstructor
+@Intercepts(@Signature(type = Executor.class, method = "update", args = {MappedStatement.class, Object.class}))
+public class BloomFilterInsertInterceptor implements Interceptor {
+
+    private final BloomFilterRegistry bloomFilterRegistry;
+
+    @Override
+    public Object intercept(Invocation invocation) throws Throwable {
+        Object result = invocation.proceed();
+        MappedStatement ms = (MappedStatement) invocation.getArgs()[0];
+        Object entity = invocation.getArgs()[1];
+        if (ms.getSqlCommandType() != SqlCommandType.INSERT || entity == null) {
+            return result;
+        }
+        TableInfo tableInfo = TableInfoHelper.getTableInfo(entity.getClass());
+        if (tableInfo == null || tableInfo.getKeyProperty() == null || !bloomFilterRegistry.isTracked(tableInfo.getTableName())) {
+            return result;
+        }
+        Object id = tableInfo.getPropertyValue(entity, tableInfo.getKeyProperty());
+        if (id instanceof Number) {
+            bloomFilterRegistry.add(tableInfo.getTableName(), ((Number) id).longValue());
+        }
+        return result;
+    }
+}
@@ -0,0 +1,255 @@
+package com.hmdp.utils;
+
+import com.hmdp.config.BloomFilterProperties;
+import com.hmdp.dto.BloomFilterStats;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.connection.RedisStringCommands;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.BLOOM_ADD_CHANNEL;
+import static com.hmdp.utils.RedisConstants.BLOOM_KEY;
+
+/**
+ * 布隆过滤器管理: 启动时按表加载所有id, 插入时追加, 查询缓存前判断id是否可能存在
+ *
+ * 过滤器保存在本地内存, 查询只看本地, 判断不存在时直接拒绝, 不访问网络。开启redis同步时, 新增的id同时SETBIT到 bloom:{name}
+ * 并在 bloom:add 频道广播, 其他节点收到后写入本地; 启动和定期同步时把redis bitmap按位或进本地, 补上错过的广播。
+ * 代价是其他节点刚插入的id在广播到达前(错过广播时最长一个syncInterval)会被本节点判断为不存在。
+ * 不开启redis同步时, 其他节点插入的id直到本节点重启才能识别, 只适合单节点部署。
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class BloomFilterRegistry implements MessageListener {
+
+    private static final int LOAD_PAGE_SIZE = 10000;
+
+    private final BloomFilterProperties bloomFilterProperties;
+
+    private final JdbcTemplate jdbcTemplate;
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    private final RedisMessageListenerContainer listenerContainer;
+
+    /**
+     * 缓存key前缀 -> 过滤器
+     */
+    private final Map<String, Holder> byPrefix = new ConcurrentHashMap<>();
+
+    /**
+     * 表名 -> 过滤器
+     */
+    private final Map<String, Holder> byTable = new ConcurrentHashMap<>();
+
+    private ScheduledExecutorService scheduler;
+
+    private static class Holder {
+        final BloomFilterProperties.Spec spec;
+        final BloomFilter filter;
+        volatile boolean ready;
+
+        Holder(BloomFilterProperties.Spec spec) {
+            this.spec = spec;
+            this.filter = BloomFilter.create(spec.getExpectedInsertions(), spec.getFpp());
+        }
+    }
+
+    /**
+     * 应用启动后从数据库加载id, 加载完成前不拦截查询
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void build() {
+        if (!bloomFilterProperties.isEnabled()) {
+            return;
+        }
+        for (BloomFilterProperties.Spec spec : bloomFilterProperties.getFilters()) {
+            if (!spec.getTable().matches("\\w+")) {
+                log.error("布隆过滤器{}的表名不合法: {}", spec.getName(), spec.getTable());
+                continue;
+            }
+            Holder holder = new Holder(spec);
+            byTable.put(spec.getTable(), holder);
+            if (spec.getPrefix() != null) {
+                byPrefix.put(spec.getPrefix(), holder);
+            }
+        }
+        for (Holder holder : byTable.values()) {
+            try {
+                load(holder);
+            } catch (Exception e) {
+                log.error("加载布隆过滤器{}失败, 暂不拦截查询", holder.spec.getName(), e);
+            }
+        }
+        if (!bloomFilterProperties.isRedis()) {
+            log.warn("布隆过滤器未开启redis同步, 其他节点插入的数据在本节点重启前会被判断为不存在; 多节点部署必须设置 hmdp.bloom.redis=true");
+        } else {
+            listenerContainer.addMessageListener(this, new ChannelTopic(BLOOM_ADD_CHANNEL));
+            long interval = bloomFilterProperties.getSyncInterval().toMillis();
+            scheduler = Executors.newSingleThreadScheduledExecutor();
+            scheduler.scheduleWithFixedDelay(this::syncAll, interval, interval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @PreDestroy
+    private void destroy() {
+        if (scheduler != null) {
+            scheduler.shutdown();
+        }
+    }
+
+    /**
+     * 按缓存key前缀判断id是否可能存在; 没有对应的过滤器、过滤器未就绪或id不是数字时返回true
+     */
+    public boolean mightContain(String keyPrefix, Object id) {
+        if (byPrefix.isEmpty() || !(id instanceof Number)) {
+            return true;
+        }
+        Holder holder = byPrefix.get(keyPrefix);
+        if (holder == null || !holder.ready) {
+            return true;
+        }
+        return holder.filter.mightContain(((Number) id).longValue());
+    }
+
+    /**
+     * 表中插入了新的id
+     */
+    public void add(String table, long id) {
+        Holder holder = byTable.get(table);
+        if (holder == null) {
+            return;
+        }
+        holder.filter.put(id);
+        if (bloomFilterProperties.isRedis()) {
+            byte[] key = redisKey(holder);
+            stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                holder.filter.forEachBit(id, index -> connection.setBit(key, index, true));
+                return null;
+            });
+            stringRedisTemplate.convertAndSend(BLOOM_ADD_CHANNEL, table + ":" + id);
+        }
+    }
+
+    /**
+     * 其他节点插入的id, 消息格式: 表名:id
+     */
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        String body = new String(message.getBody(), StandardCharsets.UTF_8);
+        int index = body.lastIndexOf(':');
+        Holder holder = index > 0 ? byTable.get(body.substring(0, index)) : null;
+        if (holder == null) {
+            return;
+        }
+        try {
+            holder.filter.put(Long.parseLong(body.substring(index + 1)));
+        } catch (NumberFormatException e) {
+            log.warn("无法识别的布隆过滤器消息: {}", body);
+        }
+    }
+
+    public boolean isTracked(String table) {
+        return byTable.containsKey(table);
+    }
+
+    public List<BloomFilterStats> stats() {
+        List<BloomFilterStats> list = new ArrayList<>();
+        for (Holder holder : byTable.values()) {
+            BloomFilter filter = holder.filter;
+            BloomFilterStats stats = new BloomFilterStats();
+            stats.setName(holder.spec.getName());
+            stats.setTable(holder.spec.getTable());
+            stats.setReady(holder.ready);
+            stats.setBitSize(filter.getBitSize());
+            stats.setHashes(filter.getHashes());
+            stats.setMemoryBytes(filter.getBitSize() >>> 3);
+            stats.setExpectedInsertions(holder.spec.getExpectedInsertions());
+            stats.setInsertions(filter.getInsertions());
+            stats.setFpp(holder.spec.getFpp());
+            stats.setEstimatedFpp(filter.estimatedFpp());
+            list.add(stats);
+        }
+        return list;
+    }
+
+    /**
+     * 按id分页加载整张表, 开启redis时与redis bitmap合并
+     */
+    private void load(Holder holder) {
+        String sql = "SELECT id FROM " + holder.spec.getTable() + " WHERE id > ? ORDER BY id LIMIT " + LOAD_PAGE_SIZE;
+        long lastId = 0;
+        int loaded = 0;
+        while (true) {
+            List<Long> ids = jdbcTemplate.queryForList(sql, Long.class, lastId);
+            for (Long id : ids) {
+                holder.filter.put(id);
+            }
+            loaded += ids.size();
+            if (ids.size() < LOAD_PAGE_SIZE) {
+                break;
+            }
+            lastId = ids.get(ids.size() - 1);
+        }
+
+        if (bloomFilterProperties.isRedis()) {
+            // 本地加载的结果按位或进redis, 再把redis中其他节点写入的位合并回本地
+            byte[] key = redisKey(holder);
+            byte[] tmp = (BLOOM_KEY + holder.spec.getName() + ":tmp:" + UUID.randomUUID()).getBytes(StandardCharsets.UTF_8);
+            byte[] bytes = holder.filter.toBytes();
+            stringRedisTemplate.execute((RedisCallback<Object>) connection -> {
+                connection.set(tmp, bytes);
+                connection.bitOp(RedisStringCommands.BitOperation.OR, key, key, tmp);
+                connection.del(tmp);
+                return null;
+            });
+            sync(holder);
+        }
+        holder.ready = true;
+
+        BloomFilter filter = holder.filter;
+        log.info("布隆过滤器{}加载完成: {}个id, {}位, {}个哈希函数, 占用{}KB, 估算误判率{}",
+                holder.spec.getName(), loaded, filter.getBitSize(), filter.getHashes(),
+                (filter.getBitSize() >>> 3) / 1024, String.format("%.6f", filter.estimatedFpp()));
+    }
+
+    private void syncAll() {
+        for (Holder holder : byTable.values()) {
+            try {
+                sync(holder);
+            } catch (Exception e) {
+                log.error("同步布隆过滤器{}失败", holder.spec.getName(), e);
+            }
+        }
+    }
+
+    private void sync(Holder holder) {
+        byte[] key = redisKey(holder);
+        byte[] bytes = stringRedisTemplate.execute((RedisCallback<byte[]>) connection -> connection.get(key));
+        if (bytes != null) {
+            holder.filter.merge(bytes);
+        }
+    }
+
+    private static byte[] redisKey(Holder holder) {
+        return (BLOOM_KEY + holder.spec.getName()).getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -1,53 +1,200 @@
 package com.hmdp.utils;
 
 
-import cn.hutool.core.text.CharSequenceUtil;
 import cn.hutool.core.util.BooleanUtil;
-import cn.hutool.json.JSONObject;
-import cn.hutool.json.JSONUtil;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import com.hmdp.config.CacheClientProperties;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.connection.RedisStringCommands;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.types.Expiration;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
 import org.springframework.stereotype.Component;
 
+import javax.annotation.PostConstruct;
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDateTime;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.time.temporal.ChronoUnit;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.function.Function;
 
+import static com.hmdp.utils.RedisConstants.CACHE_INVALIDATE_CHANNEL;
 import static com.hmdp.utils.RedisConstants.CACHE_NULL_TTL;
 
+/**
+ * 缓存工具类
+ *
+ * 可选的进程内一级缓存(Caffeine)按key前缀配置, 保存与redis中相同的编码后字节, 命中时不再访问redis,
+ * 每次命中都解码出新的对象, 调用方修改返回值不会影响其他调用方和缓存本身。
+ * 通过delete删除缓存时, 在 cache:invalidate 频道广播被删除的key, 各节点收到后清除自己的一级缓存。
+ * 配置了布隆过滤器的key前缀, 一定不存在的id在访问redis之前就被拒绝。
+ * 开启热点key探测时, 所有查询按抽样计入HotKeyDetector, 没有配置一级缓存的前缀中被判定为热点的key也放入短时间的本地缓存。
+ * 命中、未命中、互斥锁、重建次数和redis/反序列化/数据库耗时按key前缀记录到CacheMetrics。
+ * 缓存值通过CacheCodecRegistry编解码, 按字节读写redis; 空字符串表示缓存的空值。
+ */
 @Slf4j
 @Component
 @RequiredArgsConstructor
-public class CacheClient{
+public class CacheClient implements MessageListener {
 
 
     private final StringRedisTemplate stringRedisTemplate;
 
-    private static final ExecutorService CACHE_REBUILD_EXECUTOR = Executors.newFixedThreadPool(10);
+    private final CacheClientProperties cacheClientProperties;
+
+    private final RedisMessageListenerContainer listenerContainer;
+
+    private final BloomFilterRegistry bloomFilterRegistry;
+
+    private final CacheCodecRegistry cacheCodecRegistry;
+
+    private final HotKeyDetector hotKeyDetector;
+
+    private final CacheMetrics cacheMetrics;
+
+    private final CacheRebuildExecutor cacheRebuildExecutor;
+
+    /**
+     * 一级缓存中表示"缓存的是空值"的占位对象; 其他值是编码后的字节, 逻辑过期的值是 RedisData<byte[]>
+     */
+    private static final Object NULL_VALUE = new Object();
+
+    private static final byte[] EMPTY = new byte[0];
 
     /**
-     * 将任意Java对象序列化为json并存储在string类型的key中，并且可以设置TTL过期时间
+     * key前缀 -> 一级缓存
+     */
+    private final Map<String, Cache<String, Object>> l1Caches = new ConcurrentHashMap<>();
+
+    /**
+     * 热点key的本地缓存, 用于没有配置一级缓存的key前缀, 未开启热点探测时为null
+     */
+    private Cache<String, Object> hotKeyCache;
+
+    /**
+     * 正在重建的key -> 重建结果, 本节点同一个key同时只有一个线程查询数据库
+     */
+    private final Map<String, CompletableFuture<byte[]>> inFlight = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    private void init() {
+        CacheClientProperties.L1 config = cacheClientProperties.getL1();
+        if (config.isEnabled()) {
+            for (CacheClientProperties.Spec spec : config.getSpecs()) {
+                l1Caches.put(spec.getPrefix(), Caffeine.newBuilder()
+                        .maximumSize(spec.getMaximumSize())
+                        .expireAfterWrite(spec.getExpireAfterWrite())
+                        .recordStats()
+                        .build());
+            }
+            log.info("一级缓存已启用, key前缀: {}", l1Caches.keySet());
+        }
+        if (hotKeyDetector.isEnabled()) {
+            CacheClientProperties.HotKey hotKey = cacheClientProperties.getHotKey();
+            hotKeyCache = Caffeine.newBuilder()
+                    .maximumSize(hotKey.getLocalMaximumSize())
+                    .expireAfterWrite(hotKey.getLocalTtl())
+                    .recordStats()
+                    .build();
+        }
+        if (!l1Caches.isEmpty() || hotKeyCache != null) {
+            listenerContainer.addMessageListener(this, new ChannelTopic(CACHE_INVALIDATE_CHANNEL));
+        }
+    }
+
+    /**
+     * 将任意Java对象序列化并存储在string类型的key中，并且可以设置TTL过期时间
+     * 开启 hmdp.cache.jitter 时实际TTL会加上随机偏移
      */
     public void set(String key, Object value,Long time, TimeUnit unit){
-        stringRedisTemplate.opsForValue().set(key, JSONUtil.toJsonStr(value),time,unit);
+        setRaw(key, cacheCodecRegistry.encode(value), jitter(key, unit.toMillis(time)));
+        invalidateLocal(key);
     }
 
     /**
-     *   将任意Java对象序列化为json并存储在string类型的key中，并且可以设置逻辑过期时间，
-     *   用于处理缓存击穿问题
+     *   将任意Java对象序列化并存储在string类型的key中，并且可以设置逻辑过期时间，
+     *   用于处理缓存击穿问题; 开启 hmdp.cache.jitter 时逻辑过期时间同样加上随机偏移
      */
     public <T> void setWithLogicalExpire(String key, T value,Long time, TimeUnit unit ){
+        setWithLogicalExpire(key, value, time, unit, null);
+    }
+
+    /**
+     * @param rebuildMillis 本次查询数据库的耗时, 用于提前刷新的概率计算, 为null时只在过期后重建
+     */
+    private <T> void setWithLogicalExpire(String key, T value, Long time, TimeUnit unit, Long rebuildMillis) {
         //设置逻辑过期
         RedisData<T> redisData =new RedisData<>();
         redisData.setData((value));
-        redisData.setExpireTime(LocalDateTime.now().plusSeconds(unit.toSeconds(time)));
+        redisData.setExpireTime(LocalDateTime.now().plus(jitter(key, unit.toMillis(time)), ChronoUnit.MILLIS));
+        redisData.setRebuildMillis(rebuildMillis);
 
         //写入redis
-        stringRedisTemplate.opsForValue().set(key,JSONUtil.toJsonStr(redisData));
+        setRaw(key, cacheCodecRegistry.encode(redisData), 0);
+        invalidateLocal(key);
+
+    }
+
+    /**
+     * 删除缓存, 并通知所有节点清除一级缓存
+     */
+    public void delete(String key) {
+        stringRedisTemplate.delete(key);
+        invalidateLocal(key);
+        if (!l1Caches.isEmpty() || hotKeyCache != null) {
+            stringRedisTemplate.convertAndSend(CACHE_INVALIDATE_CHANNEL, key);
+        }
+    }
+
+    /**
+     * 一次pipeline删除多个缓存并通知所有节点清除一级缓存, redis出错时抛出异常, 由调用方重试
+     */
+    public void deleteBatch(Collection<String> keys) {
+        if (keys.isEmpty()) {
+            return;
+        }
+        boolean publish = !l1Caches.isEmpty() || hotKeyCache != null;
+        byte[] channel = rawKey(CACHE_INVALIDATE_CHANNEL);
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            byte[][] rawKeys = new byte[keys.size()][];
+            int i = 0;
+            for (String key : keys) {
+                rawKeys[i++] = rawKey(key);
+            }
+            connection.del(rawKeys);
+            if (publish) {
+                for (byte[] rawKey : rawKeys) {
+                    connection.publish(channel, rawKey);
+                }
+            }
+            return null;
+        });
+        keys.forEach(this::invalidateLocal);
+    }
 
+    /**
+     * 各key前缀一级缓存的命中统计, 热点key本地缓存的统计在 hot-keys 下
+     */
+    public Map<String, CacheStats> l1Stats() {
+        Map<String, CacheStats> stats = new LinkedHashMap<>();
+        l1Caches.forEach((prefix, cache) -> stats.put(prefix, cache.stats()));
+        if (hotKeyCache != null) {
+            stats.put("hot-keys", hotKeyCache.stats());
+        }
+        return stats;
     }
 
     /**
@@ -56,28 +203,54 @@ public class CacheClient{
     public <T,ID> T queryWithPassThrough(
             String keyPrefix, ID id, Class<T> type, Function<ID, T> dbFallback, Long time, TimeUnit unit){
         String key = keyPrefix + id;
+        CacheMetrics.Meters meters = cacheMetrics.of(keyPrefix);
+
+        //0. 布隆过滤器判断id一定不存在时直接返回, 不访问redis和数据库, 也不写入空值
+        if (!bloomFilterRegistry.mightContain(keyPrefix, id)) {
+            return null;
+        }
+
+        //0.1 先查一级缓存
+        hotKeyDetector.record(key);
+        Cache<String, Object> l1 = localCache(keyPrefix, key);
+        if (l1 != null) {
+            Object cached = l1.getIfPresent(key);
+            if (cached == NULL_VALUE) {
+                meters.localHit();
+                return null;
+            }
+            if (cached instanceof byte[]) {
+                meters.localHit();
+                return decode(meters, (byte[]) cached, type);
+            }
+        }
 
         //1. 从redis查询商铺缓存
-        String Json = stringRedisTemplate.opsForValue().get(key);
+        byte[] cached = getRaw(meters, key);
 
         //2. 判断是否存在
-        if (CharSequenceUtil.isNotBlank(Json)){
+        if (cached != null && cached.length > 0){
             // 3.存在,直接返回
-            return JSONUtil.toBean(Json, type);
+            meters.hit();
+            putLocal(l1, key, cached);
+            return decode(meters, cached, type);
         }
 
         //判断命中的是否为空值
-        if(Json!=null){
+        if(cached!=null){
+            meters.nullHit();
+            putLocal(l1, key, NULL_VALUE);
             return null;
         }
 
         //4. 不存在,根据id查询数据库
-        T t = dbFallback.apply(id);
+        meters.miss();
+        T t = load(meters, dbFallback, id);
 
         //5. 不存在,返回错误
         if (t==null){
             //将空值写入redis
-            stringRedisTemplate.opsForValue().set(key,"",CACHE_NULL_TTL, TimeUnit.MINUTES);
+            setRaw(key, EMPTY, jitter(key, TimeUnit.MINUTES.toMillis(CACHE_NULL_TTL)));
             //返回错误信息
             return null;
         }
@@ -90,58 +263,92 @@ public class CacheClient{
 
     /**
      * 根据指定的key查询缓存，并反序列化为指定类型，需要利用逻辑过期解决缓存击穿问题
+     * 开启提前刷新时, 没过期的数据也可能按概率触发重建, 见shouldRefresh
      */
     public <T,ID> T queryWithLogicalExpire(
             String keyPrefix, ID id, Class<T> type,Function<ID, T> dbFallback, Long time, TimeUnit unit){
         String key = keyPrefix + id;
+        CacheMetrics.Meters meters = cacheMetrics.of(keyPrefix);
+
+        //0. 先查一级缓存, 缓存的是已经反序列化的数据和它的逻辑过期时间, 逻辑过期后走redis和重建流程
+        hotKeyDetector.record(key);
+        Cache<String, Object> l1 = localCache(keyPrefix, key);
+        if (l1 != null) {
+            Object cached = l1.getIfPresent(key);
+            if (cached instanceof RedisData) {
+                RedisData<?> local = (RedisData<?>) cached;
+                if (local.getData() instanceof byte[] && !shouldRefresh(local, LocalDateTime.now())) {
+                    meters.localHit();
+                    return decodeLogical(meters, (byte[]) local.getData(), type).getData();
+                }
+            }
+        }
 
         //1. 从redis查询商铺缓存
-        String Json = stringRedisTemplate.opsForValue().get(key);
+        byte[] cached = getRaw(meters, key);
 
         //2. 判断是否存在
-        if (CharSequenceUtil.isBlank(Json)){
+        if (cached == null || cached.length == 0){
             // 3. 不存在,返回空
+            if (cached == null) {
+                meters.miss();
+            } else {
+                meters.nullHit();
+            }
             return null;
         }
 
-        //4. 命中,需要先把json反序列化为对象
-        RedisData<T> redisData = JSONUtil.toBean(Json, RedisData.class);
-        T t = JSONUtil.toBean((JSONObject) redisData.getData(),type);
+        //4. 命中,需要先反序列化为对象
+        RedisData<T> redisData = decodeLogical(meters, cached, type);
+        T t = redisData.getData();
         LocalDateTime expireTime = redisData.getExpireTime();
+        LocalDateTime now = LocalDateTime.now();
+        if (expireTime.isAfter(now)) {
+            meters.hit();
+        } else {
+            meters.expiredHit();
+        }
 
-        //5. 判读是否过期
-        if(expireTime.isAfter(LocalDateTime.now())){
-            //5.1 如果没过期, 直接返回店铺信息
+        //5. 判读是否过期, 没过期时按概率提前刷新
+        if(!shouldRefresh(redisData, now)){
+            //5.1 如果不需要刷新, 直接返回店铺信息, 并放入一级缓存
+            putLocal(l1, key, localEntry(redisData, cached));
             return t;
         }
 
 
-        //5.2 已过期, 需要缓存重建
+        //5.2 已过期或提前刷新, 需要缓存重建
         //6. 缓存重建
         //6.1 获取互斥锁
         String lokKey = RedisConstants.LOCK_SHOP_KEY + id;
-        boolean isLock = tryLock(lokKey);
+        boolean isLock = tryLock(meters, lokKey);
 
         //6.2判断是否获取锁成功
         if(isLock){
 
-            //做双重检查锁定 (DoubleChecked)
-            if(expireTime.isAfter(LocalDateTime.now())){
-                //  如果没过期, 直接返回店铺信息
+            //做双重检查锁定 (DoubleChecked): 抢到锁之前其他节点可能已经重建, 此时redis中的过期时间比读到的晚
+            byte[] latest = getRaw(meters, key);
+            if (latest != null && latest.length > 0
+                    && decodeLogical(meters, latest, type).getExpireTime().isAfter(expireTime)) {
+                unLock(lokKey);
                 return t;
             }
-            CACHE_REBUILD_EXECUTOR.submit( ()->{
+            CacheRebuildExecutor.SubmitResult submitted = cacheRebuildExecutor.submit(key, () -> {
                 try {
-                    //查询数据库
-                    T t1 = dbFallback.apply(id);
+                    //查询数据库, 记录耗时
+                    long start = System.nanoTime();
+                    T t1 = load(meters, dbFallback, id);
+                    long rebuildMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
                     //重建缓存
-                    this.setWithLogicalExpire(key, t1, time, unit );
-                }catch (Exception e){
-                    throw new RuntimeException(e);
-                }finally {
+                    this.setWithLogicalExpire(key, t1, time, unit, rebuildMillis);
+                } finally {
                     unLock(lokKey);
                 }
             });
+            if (submitted != CacheRebuildExecutor.SubmitResult.ACCEPTED) {
+                // 合并到已有任务或重建队列已满被丢弃, 本次的任务不会执行, 释放锁让之后的请求重试
+                unLock(lokKey);
+            }
         }
         //7. 返回
         return t;
@@ -149,61 +356,551 @@ public class CacheClient{
 
     /**
      * 根据指定的key查询缓存，并反序列化为指定类型，利用缓存空值的方式解决缓存穿透问题
-     * 加入互斥锁
+     * 加入互斥锁; 本节点内并发的未命中合并为一次重建, 等待超过 hmdp.cache.single-flight.timeout 时抛出CacheRebuildTimeoutException
      */
     public <T, ID> T queryWithMutex(
             String keyPrefix, ID id, Class<T> type, Function<ID, T> dbFallback, Long time, TimeUnit unit) {
         String key = keyPrefix + id;
+        CacheMetrics.Meters meters = cacheMetrics.of(keyPrefix);
+        // 0.布隆过滤器判断id一定不存在时直接返回
+        if (!bloomFilterRegistry.mightContain(keyPrefix, id)) {
+            return null;
+        }
+        // 0.1 先查一级缓存
+        hotKeyDetector.record(key);
+        Cache<String, Object> l1 = localCache(keyPrefix, key);
+        if (l1 != null) {
+            Object cached = l1.getIfPresent(key);
+            if (cached == NULL_VALUE) {
+                meters.localHit();
+                return null;
+            }
+            if (cached instanceof byte[]) {
+                meters.localHit();
+                return decode(meters, (byte[]) cached, type);
+            }
+        }
         // 1.从redis查询商铺缓存
-        String shopJson = stringRedisTemplate.opsForValue().get(key);
+        byte[] shopBytes = getRaw(meters, key);
         // 2.判断是否存在
-        if (CharSequenceUtil.isNotBlank(shopJson)) {
+        if (shopBytes != null && shopBytes.length > 0) {
             // 3.存在，直接返回
-            return JSONUtil.toBean(shopJson, type);
+            meters.hit();
+            putLocal(l1, key, shopBytes);
+            return decode(meters, shopBytes, type);
         }
         // 判断命中的是否是空值
-        if (shopJson != null) {
+        if (shopBytes != null) {
             // 返回一个错误信息
+            meters.nullHit();
+            putLocal(l1, key, NULL_VALUE);
             return null;
         }
+        meters.miss();
+
+        // 4.实现缓存重建: 本节点内同一个key只有一个线程(leader)去抢redis互斥锁并查询数据库, 其他线程等待它的结果
+        //   结果以编码后的字节传给等待的线程, 每个线程各自解码, 不共享同一个对象
+        CompletableFuture<byte[]> flight = new CompletableFuture<>();
+        CompletableFuture<byte[]> leader = inFlight.putIfAbsent(key, flight);
+        if (leader != null) {
+            return awaitFlight(meters, leader, key, type);
+        }
+        try {
+            byte[] value = rebuildWithMutex(meters, key, id, dbFallback, time, unit);
+            putLocal(l1, key, value.length == 0 ? NULL_VALUE : value);
+            flight.complete(value);
+            return value.length == 0 ? null : decode(meters, value, type);
+        } catch (RuntimeException e) {
+            flight.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, flight);
+        }
+    }
 
-        // 4.实现缓存重建
-        // 4.1.获取互斥锁
+    /**
+     * 获取redis互斥锁后查询数据库并写入缓存
+     * @return 编码后的查询结果, 数据库中不存在时返回空数组
+     */
+    private <T, ID> byte[] rebuildWithMutex(CacheMetrics.Meters meters, String key, ID id,
+                                            Function<ID, T> dbFallback, Long time, TimeUnit unit) {
+        CacheClientProperties.SingleFlight config = cacheClientProperties.getSingleFlight();
+        long deadline = System.currentTimeMillis() + config.getTimeout().toMillis();
+        // 4.1.获取互斥锁, 失败说明其他节点正在重建, 间隔一段时间检查缓存是否已经写好后再抢锁, 超时则放弃
         String lockKey = RedisConstants.LOCK_SHOP_KEY + id;
-        T t = null;
+        while (!tryLock(meters, lockKey)) {
+            if (System.currentTimeMillis() >= deadline) {
+                throw new CacheRebuildTimeoutException(key);
+            }
+            try {
+                Thread.sleep(config.getLockRetryInterval().toMillis());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new CacheRebuildTimeoutException(key);
+            }
+            byte[] cached = getRaw(meters, key);
+            if (cached != null) {
+                return cached;
+            }
+        }
         try {
-            boolean isLock = tryLock(lockKey);
-            // 4.2.判断是否获取成功
-            if (!isLock) {
-                // 4.3.获取锁失败，休眠并重试
-                Thread.sleep(50);
-                return queryWithMutex(keyPrefix, id, type, dbFallback, time, unit);
-            }
-            // 4.4.获取锁成功，根据id查询数据库
-            t = dbFallback.apply(id);
-            // 5.不存在，返回错误
+            // 4.2.双重检查, 抢到锁之前缓存可能已经被其他节点重建
+            byte[] cached = getRaw(meters, key);
+            if (cached != null) {
+                return cached;
+            }
+            // 4.3.根据id查询数据库
+            T t = load(meters, dbFallback, id);
+            // 5.不存在，将空值写入redis
             if (t == null) {
-                // 将空值写入redis
-                stringRedisTemplate.opsForValue().set(key, "", CACHE_NULL_TTL, TimeUnit.MINUTES);
-                // 返回错误信息
-                return null;
+                setRaw(key, EMPTY, jitter(key, TimeUnit.MINUTES.toMillis(CACHE_NULL_TTL)));
+                return EMPTY;
             }
             // 6.存在，写入redis
-            this.set(key, t, time, unit);
-        } catch (InterruptedException e) {
-            throw new RuntimeException(e);
-        }finally {
+            byte[] bytes = cacheCodecRegistry.encode(t);
+            setRaw(key, bytes, jitter(key, unit.toMillis(time)));
+            invalidateLocal(key);
+            return bytes;
+        } finally {
             // 7.释放锁
             unLock(lockKey);
         }
-        // 8.返回
+    }
+
+    /**
+     * 等待本节点leader的重建结果, 超时后再读一次redis, 仍然没有则放弃
+     */
+    private <T> T awaitFlight(CacheMetrics.Meters meters, CompletableFuture<byte[]> flight, String key, Class<T> type) {
+        byte[] value;
+        try {
+            value = flight.get(cacheClientProperties.getSingleFlight().getTimeout().toMillis(), TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            value = getRaw(meters, key);
+            if (value == null) {
+                throw new CacheRebuildTimeoutException(key);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CacheRebuildTimeoutException(key);
+        } catch (ExecutionException e) {
+            // leader重建失败, 与leader抛出同样的异常
+            Throwable cause = e.getCause();
+            throw cause instanceof RuntimeException ? (RuntimeException) cause : new IllegalStateException(cause);
+        }
+        return value.length == 0 ? null : decode(meters, value, type);
+    }
+
+    /**
+     * 批量查询, 缓存空值解决缓存穿透: 一次MGET, 未命中的id一次交给dbFallback批量查询, 再用一次pipeline回写
+     * @param ids 要查询的id, 可以重复
+     * @param dbFallback 批量查询数据库, 例如 listByIds, 查不到的id不需要返回
+     * @param idMapper 从查询结果中取出id, 用于与请求的id对应
+     * @return 与ids顺序一致的结果, 不存在的为null
+     */
+    public <T, ID> List<T> queryBatchWithPassThrough(
+            String keyPrefix, Collection<ID> ids, Class<T> type, Function<Collection<ID>, List<T>> dbFallback,
+            Function<T, ID> idMapper, Long time, TimeUnit unit) {
+        Map<ID, T> found = new HashMap<>();
+        CacheMetrics.Meters meters = cacheMetrics.of(keyPrefix);
+
+        //1. 布隆过滤器和一级缓存
+        List<ID> remaining = new ArrayList<>();
+        for (ID id : new LinkedHashSet<>(ids)) {
+            if (!bloomFilterRegistry.mightContain(keyPrefix, id)) {
+                continue;
+            }
+            String key = keyPrefix + id;
+            hotKeyDetector.record(key);
+            Cache<String, Object> l1 = localCache(keyPrefix, key);
+            Object cached = l1 == null ? null : l1.getIfPresent(key);
+            if (cached == NULL_VALUE) {
+                meters.localHit();
+                continue;
+            }
+            if (cached instanceof byte[]) {
+                meters.localHit();
+                found.put(id, decode(meters, (byte[]) cached, type));
+                continue;
+            }
+            remaining.add(id);
+        }
+
+        //2. 一次MGET查询redis
+        List<ID> misses = new ArrayList<>();
+        if (!remaining.isEmpty()) {
+            List<byte[]> values = multiGet(meters, keyPrefix, remaining);
+            for (int i = 0; i < remaining.size(); i++) {
+                ID id = remaining.get(i);
+                byte[] cached = values.get(i);
+                if (cached != null && cached.length > 0) {
+                    meters.hit();
+                    putLocal(localCache(keyPrefix, keyPrefix + id), keyPrefix + id, cached);
+                    found.put(id, decode(meters, cached, type));
+                } else if (cached != null) {
+                    // 命中空值
+                    meters.nullHit();
+                    putLocal(localCache(keyPrefix, keyPrefix + id), keyPrefix + id, NULL_VALUE);
+                } else {
+                    meters.miss();
+                    misses.add(id);
+                }
+            }
+        }
+
+        //3. 未命中的一次查询数据库, 再一次pipeline回写, 不存在的写入空值
+        if (!misses.isEmpty()) {
+            Map<String, byte[]> values = new HashMap<>();
+            List<String> nullKeys = new ArrayList<>();
+            Map<ID, T> loaded = loadBatch(meters, misses, dbFallback, idMapper);
+            for (ID id : misses) {
+                T t = loaded.get(id);
+                if (t == null) {
+                    nullKeys.add(keyPrefix + id);
+                } else {
+                    values.put(keyPrefix + id, cacheCodecRegistry.encode(t));
+                    found.put(id, t);
+                }
+            }
+            writeBatch(values, unit.toMillis(time), nullKeys);
+        }
+
+        //4. 按请求顺序返回
+        List<T> result = new ArrayList<>(ids.size());
+        for (ID id : ids) {
+            result.add(found.get(id));
+        }
+        return result;
+    }
+
+    /**
+     * 批量查询, 逻辑过期解决缓存击穿: 一次MGET, 已过期的返回旧数据并异步批量重建,
+     * 缓存中没有的一次交给dbFallback批量查询后回写
+     * @return 与ids顺序一致的结果, 不存在的为null
+     */
+    public <T, ID> List<T> queryBatchWithLogicalExpire(
+            String keyPrefix, Collection<ID> ids, Class<T> type, Function<Collection<ID>, List<T>> dbFallback,
+            Function<T, ID> idMapper, Long time, TimeUnit unit) {
+        Map<ID, T> found = new HashMap<>();
+        CacheMetrics.Meters meters = cacheMetrics.of(keyPrefix);
+        LocalDateTime now = LocalDateTime.now();
+
+        //1. 布隆过滤器和一级缓存
+        List<ID> remaining = new ArrayList<>();
+        for (ID id : new LinkedHashSet<>(ids)) {
+            if (!bloomFilterRegistry.mightContain(keyPrefix, id)) {
+                continue;
+            }
+            String key = keyPrefix + id;
+            hotKeyDetector.record(key);
+            Cache<String, Object> l1 = localCache(keyPrefix, key);
+            Object cached = l1 == null ? null : l1.getIfPresent(key);
+            if (cached instanceof RedisData) {
+                RedisData<?> local = (RedisData<?>) cached;
+                if (local.getData() instanceof byte[] && !shouldRefresh(local, now)) {
+                    meters.localHit();
+                    found.put(id, decodeLogical(meters, (byte[]) local.getData(), type).getData());
+                    continue;
+                }
+            }
+            remaining.add(id);
+        }
+
+        //2. 一次MGET查询redis, 区分不需要刷新、需要刷新(已过期或提前刷新)和不存在
+        List<ID> expired = new ArrayList<>();
+        List<ID> misses = new ArrayList<>();
+        if (!remaining.isEmpty()) {
+            List<byte[]> values = multiGet(meters, keyPrefix, remaining);
+            for (int i = 0; i < remaining.size(); i++) {
+                ID id = remaining.get(i);
+                byte[] cached = values.get(i);
+                if (cached == null) {
+                    meters.miss();
+                    misses.add(id);
+                    continue;
+                }
+                if (cached.length == 0) {
+                    meters.nullHit();
+                    continue;
+                }
+                RedisData<T> redisData = decodeLogical(meters, cached, type);
+                T t = redisData.getData();
+                found.put(id, t);
+                if (redisData.getExpireTime().isAfter(now)) {
+                    meters.hit();
+                } else {
+                    meters.expiredHit();
+                }
+                if (shouldRefresh(redisData, now)) {
+                    expired.add(id);
+                } else {
+                    putLocal(localCache(keyPrefix, keyPrefix + id), keyPrefix + id, localEntry(redisData, cached));
+                }
+            }
+        }
+
+        //3. 缓存中没有的同步加载并回写
+        if (!misses.isEmpty()) {
+            long start = System.nanoTime();
+            Map<ID, T> loaded = loadBatch(meters, misses, dbFallback, idMapper);
+            long rebuildMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            found.putAll(loaded);
+            writeLogicalBatch(keyPrefix, misses, loaded, time, unit, rebuildMillis);
+        }
+
+        //4. 需要刷新的, 拿到各自互斥锁的那部分交给一个异步任务批量重建
+        List<ID> locked = new ArrayList<>();
+        for (ID id : expired) {
+            if (tryLock(meters, RedisConstants.LOCK_SHOP_KEY + id)) {
+                locked.add(id);
+            }
+        }
+        if (!locked.isEmpty()) {
+            List<String> keys = new ArrayList<>(locked.size());
+            locked.forEach(id -> keys.add(keyPrefix + id));
+            CacheRebuildExecutor.SubmitResult submitted = cacheRebuildExecutor.submit(keyPrefix + locked, keys, () -> {
+                try {
+                    long start = System.nanoTime();
+                    Map<ID, T> loaded = loadBatch(meters, locked, dbFallback, idMapper);
+                    long rebuildMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+                    writeLogicalBatch(keyPrefix, locked, loaded, time, unit, rebuildMillis);
+                } finally {
+                    locked.forEach(id -> unLock(RedisConstants.LOCK_SHOP_KEY + id));
+                }
+            });
+            if (submitted != CacheRebuildExecutor.SubmitResult.ACCEPTED) {
+                locked.forEach(id -> unLock(RedisConstants.LOCK_SHOP_KEY + id));
+            }
+        }
+
+        //5. 按请求顺序返回
+        List<T> result = new ArrayList<>(ids.size());
+        for (ID id : ids) {
+            result.add(found.get(id));
+        }
+        return result;
+    }
+
+    private <ID> List<byte[]> multiGet(CacheMetrics.Meters meters, String keyPrefix, List<ID> ids) {
+        byte[][] keys = new byte[ids.size()][];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = rawKey(keyPrefix + ids.get(i));
+        }
+        long start = System.nanoTime();
+        List<byte[]> values = stringRedisTemplate.execute((RedisCallback<List<byte[]>>) connection -> connection.mGet(keys));
+        meters.redisGet(start);
+        return values == null ? Collections.nCopies(keys.length, null) : values;
+    }
+
+    private static <T, ID> T load(CacheMetrics.Meters meters, Function<ID, T> dbFallback, ID id) {
+        long start = System.nanoTime();
+        try {
+            return dbFallback.apply(id);
+        } finally {
+            meters.dbLoad(start);
+            meters.rebuilt(1);
+        }
+    }
+
+    private static <T, ID> Map<ID, T> loadBatch(CacheMetrics.Meters meters, List<ID> ids,
+                                                Function<Collection<ID>, List<T>> dbFallback, Function<T, ID> idMapper) {
+        Map<ID, T> loaded = new HashMap<>();
+        long start = System.nanoTime();
+        List<T> list = dbFallback.apply(ids);
+        meters.dbLoad(start);
+        meters.rebuilt(ids.size());
+        if (list != null) {
+            for (T t : list) {
+                loaded.put(idMapper.apply(t), t);
+            }
+        }
+        return loaded;
+    }
+
+    /**
+     * 按逻辑过期格式回写一批数据, 数据库中也不存在的写入空值
+     * @param rebuildMillis 整批查询数据库的耗时, 作为每个key的重建耗时记录, 使批量加载的key更早开始提前刷新
+     */
+    private <T, ID> void writeLogicalBatch(String keyPrefix, List<ID> ids, Map<ID, T> loaded, Long time, TimeUnit unit, long rebuildMillis) {
+        LocalDateTime now = LocalDateTime.now();
+        long ttlMillis = unit.toMillis(time);
+        Map<String, byte[]> values = new HashMap<>();
+        List<String> nullKeys = new ArrayList<>();
+        for (ID id : ids) {
+            T t = loaded.get(id);
+            if (t == null) {
+                nullKeys.add(keyPrefix + id);
+                continue;
+            }
+            RedisData<T> redisData = new RedisData<>();
+            redisData.setData(t);
+            redisData.setExpireTime(now.plus(jitter(keyPrefix + id, ttlMillis), ChronoUnit.MILLIS));
+            redisData.setRebuildMillis(rebuildMillis);
+            values.put(keyPrefix + id, cacheCodecRegistry.encode(redisData));
+        }
+        writeBatch(values, 0, nullKeys);
+    }
+
+    /**
+     * 一次pipeline写入多个key
+     * @param ttlMillis 大于0时设置过期时间(每个key分别加随机偏移), 否则不过期
+     * @param nullKeys 写入空值的key, 过期时间为CACHE_NULL_TTL
+     */
+    private void writeBatch(Map<String, byte[]> values, long ttlMillis, List<String> nullKeys) {
+        if (values.isEmpty() && nullKeys.isEmpty()) {
+            return;
+        }
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            values.forEach((key, value) -> {
+                if (ttlMillis > 0) {
+                    connection.set(rawKey(key), value, Expiration.milliseconds(jitter(key, ttlMillis)), RedisStringCommands.SetOption.UPSERT);
+                } else {
+                    connection.set(rawKey(key), value);
+                }
+            });
+            long nullTtlMillis = TimeUnit.MINUTES.toMillis(CACHE_NULL_TTL);
+            for (String key : nullKeys) {
+                connection.set(rawKey(key), EMPTY, Expiration.milliseconds(jitter(key, nullTtlMillis)), RedisStringCommands.SetOption.UPSERT);
+            }
+            return null;
+        });
+        values.keySet().forEach(this::invalidateLocal);
+        nullKeys.forEach(this::invalidateLocal);
+    }
+
+    /**
+     * 读取缓存值的原始字节, key不存在时返回null
+     */
+    private byte[] getRaw(CacheMetrics.Meters meters, String key) {
+        long start = System.nanoTime();
+        byte[] value = stringRedisTemplate.execute((RedisCallback<byte[]>) connection -> connection.get(rawKey(key)));
+        meters.redisGet(start);
+        return value;
+    }
+
+    /**
+     * 写入缓存值的原始字节
+     * @param ttlMillis 大于0时设置过期时间, 否则不过期
+     */
+    private void setRaw(String key, byte[] value, long ttlMillis) {
+        stringRedisTemplate.execute((RedisCallback<Object>) connection -> ttlMillis > 0
+                ? connection.set(rawKey(key), value, Expiration.milliseconds(ttlMillis), RedisStringCommands.SetOption.UPSERT)
+                : connection.set(rawKey(key), value));
+    }
+
+    private <T> T decode(CacheMetrics.Meters meters, byte[] bytes, Class<T> type) {
+        long start = System.nanoTime();
+        T t = cacheCodecRegistry.decode(bytes, type);
+        meters.decode(start);
         return t;
     }
 
+    private <T> RedisData<T> decodeLogical(CacheMetrics.Meters meters, byte[] bytes, Class<T> type) {
+        long start = System.nanoTime();
+        RedisData<T> redisData = cacheCodecRegistry.decodeLogical(bytes, type);
+        meters.decode(start);
+        return redisData;
+    }
+
+    /**
+     * 给过期时长加上随机偏移, 偏移比例按key前缀配置, 只会延长不会缩短
+     */
+    private long jitter(String key, long millis) {
+        CacheClientProperties.Jitter config = cacheClientProperties.getJitter();
+        if (!config.isEnabled() || millis <= 0) {
+            return millis;
+        }
+        double ratio = config.getRatio();
+        int matched = -1;
+        for (CacheClientProperties.JitterSpec spec : config.getSpecs()) {
+            if (key.startsWith(spec.getPrefix()) && spec.getPrefix().length() > matched) {
+                matched = spec.getPrefix().length();
+                ratio = spec.getRatio();
+            }
+        }
+        if (ratio <= 0) {
+            return millis;
+        }
+        return millis + (long) (millis * ratio * ThreadLocalRandom.current().nextDouble());
+    }
+
+    private static byte[] rawKey(String key) {
+        return key.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * 逻辑过期的数据是否需要重建: 已过期一定重建; 开启提前刷新时按XFetch算法,
+     * 当 now - rebuildMillis * beta * ln(random) >= expireTime 时提前重建。
+     * 越接近过期、重建越慢, 提前刷新的概率越大, 各节点的读请求在过期前随机地分散触发重建,
+     * 而不是在过期的瞬间一起争抢互斥锁。没有记录重建耗时的旧数据只在过期后重建。
+     */
+    private boolean shouldRefresh(RedisData<?> redisData, LocalDateTime now) {
+        LocalDateTime expireTime = redisData.getExpireTime();
+        if (!expireTime.isAfter(now)) {
+            return true;
+        }
+        CacheClientProperties.EarlyRefresh config = cacheClientProperties.getEarlyRefresh();
+        Long rebuildMillis = redisData.getRebuildMillis();
+        if (!config.isEnabled() || rebuildMillis == null) {
+            return false;
+        }
+        // 1 - nextDouble() 取值 (0, 1], 避免 ln(0)
+        double gap = Math.max(1, rebuildMillis) * config.getBeta() * -Math.log(1 - ThreadLocalRandom.current().nextDouble());
+        return !now.plus((long) gap, ChronoUnit.MILLIS).isBefore(expireTime);
+    }
+
+    /**
+     * key使用的本地缓存: 前缀配置了一级缓存时用一级缓存, 否则key是热点时用热点key本地缓存, 都不是返回null
+     */
+    private Cache<String, Object> localCache(String keyPrefix, String key) {
+        Cache<String, Object> l1 = l1Caches.get(keyPrefix);
+        if (l1 != null || hotKeyCache == null) {
+            return l1;
+        }
+        return hotKeyDetector.isHot(key) ? hotKeyCache : null;
+    }
+
+    private static void putLocal(Cache<String, Object> l1, String key, Object value) {
+        if (l1 != null) {
+            l1.put(key, value);
+        }
+    }
+
+    /**
+     * 逻辑过期值在本地缓存中的形式: 保留过期时间和重建耗时用于判断是否需要刷新, data是redis中的原始字节
+     */
+    private static RedisData<byte[]> localEntry(RedisData<?> redisData, byte[] bytes) {
+        RedisData<byte[]> entry = new RedisData<>();
+        entry.setExpireTime(redisData.getExpireTime());
+        entry.setRebuildMillis(redisData.getRebuildMillis());
+        entry.setData(bytes);
+        return entry;
+    }
+
+    /**
+     * 清除本节点一级缓存和热点key本地缓存中的key
+     */
+    private void invalidateLocal(String key) {
+        if (hotKeyCache != null) {
+            hotKeyCache.invalidate(key);
+        }
+        for (Map.Entry<String, Cache<String, Object>> entry : l1Caches.entrySet()) {
+            if (key.startsWith(entry.getKey())) {
+                entry.getValue().invalidate(key);
+            }
+        }
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        invalidateLocal(new String(message.getBody(), StandardCharsets.UTF_8));
+    }
+
     //上锁
-    private boolean tryLock(String key){
+    private boolean tryLock(CacheMetrics.Meters meters, String key){
         Boolean flag = stringRedisTemplate.opsForValue().setIfAbsent(key, "1", 10, TimeUnit.SECONDS);
-        return BooleanUtil.isTrue(flag);
+        boolean acquired = BooleanUtil.isTrue(flag);
+        meters.lock(acquired);
+        return acquired;
     }
 
     //解锁
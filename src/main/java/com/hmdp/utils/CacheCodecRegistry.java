@@ -0,0 +1,172 @@
+package com.hmdp.utils;
+
+import com.hmdp.config.CacheClientProperties;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * 缓存值的编解码入口, CacheClient写入和读取redis时都经过这里
+ *
+ * 除hutool旧格式外, 写入的值都带4字节头部: 标记(0xFE), 头部版本, 编解码器id, 标志位。
+ * 标志位表示压缩时, 头部之后是4字节的原始长度和deflate压缩后的数据。hutool旧格式没有头部, 不压缩。
+ * 0xFE不会出现在UTF-8文本中, 不带头部的值按hutool旧格式读取。
+ *
+ * 读取只看值本身的头部, 与 hmdp.cache.codec.write 无关。切换编码时先发布能读取新格式的版本
+ * (write保持不变), 所有节点升级完成后再修改write, 滚动发布期间新旧节点都能读取对方写入的值。
+ */
+@Slf4j
+@Component
+public class CacheCodecRegistry {
+
+    private static final byte MAGIC = (byte) 0xFE;
+
+    private static final byte FORMAT_VERSION = 1;
+
+    private static final int HEADER_SIZE = 4;
+
+    private static final byte FLAG_DEFLATE = 1;
+
+    private final CacheValueCodec legacy = new HutoolJsonCacheCodec();
+
+    /**
+     * 编解码器id -> 编解码器
+     */
+    private final CacheValueCodec[] codecs = new CacheValueCodec[128];
+
+    private final CacheValueCodec writer;
+
+    private final int compressThreshold;
+
+    public CacheCodecRegistry(CacheClientProperties cacheClientProperties) {
+        register(JacksonCacheCodec.json());
+        register(JacksonCacheCodec.smile());
+        CacheClientProperties.Codec config = cacheClientProperties.getCodec();
+        this.writer = Arrays.stream(codecs)
+                .filter(codec -> codec != null && codec.name().equals(config.getWrite()))
+                .findFirst()
+                .orElse(legacy);
+        if (!writer.name().equals(config.getWrite())) {
+            log.warn("未知的缓存编码: {}, 使用hutool格式写入", config.getWrite());
+        }
+        this.compressThreshold = (int) Math.min(Integer.MAX_VALUE, config.getCompressThreshold().toBytes());
+        if (writer == legacy && compressThreshold > 0) {
+            // 旧格式没有头部, 无法标记压缩; 压缩后未升级的节点也读不出来
+            log.warn("hutool格式写入的值不压缩, compress-threshold不生效; 所有节点升级后把write改为json或smile才会压缩");
+        }
+        log.info("缓存写入编码: {}, 压缩阈值: {}字节", writer.name(), writer == legacy ? 0 : compressThreshold);
+    }
+
+    /**
+     * 注册一种编解码器, id不能与已有的重复
+     */
+    public void register(CacheValueCodec codec) {
+        int id = codec.id();
+        if (id <= 0 || codecs[id] != null) {
+            throw new IllegalArgumentException("缓存编解码器id无效或已被使用: " + id);
+        }
+        codecs[id] = codec;
+    }
+
+    public byte[] encode(Object value) {
+        byte[] body = writer.encode(value);
+        if (writer == legacy) {
+            return body;
+        }
+        if (compressThreshold <= 0 || body.length < compressThreshold) {
+            return ByteBuffer.allocate(HEADER_SIZE + body.length)
+                    .put(MAGIC).put(FORMAT_VERSION).put(writer.id()).put((byte) 0)
+                    .put(body)
+                    .array();
+        }
+        byte[] compressed = deflate(body);
+        return ByteBuffer.allocate(HEADER_SIZE + Integer.BYTES + compressed.length)
+                .put(MAGIC).put(FORMAT_VERSION).put(writer.id()).put(FLAG_DEFLATE)
+                .putInt(body.length)
+                .put(compressed)
+                .array();
+    }
+
+    public <T> T decode(byte[] bytes, Class<T> type) {
+        if (!hasHeader(bytes)) {
+            return legacy.decode(bytes, type);
+        }
+        return codec(bytes).decode(body(bytes), type);
+    }
+
+    public <T> RedisData<T> decodeLogical(byte[] bytes, Class<T> type) {
+        if (!hasHeader(bytes)) {
+            return legacy.decodeLogical(bytes, type);
+        }
+        return codec(bytes).decodeLogical(body(bytes), type);
+    }
+
+    private static boolean hasHeader(byte[] bytes) {
+        return bytes.length >= HEADER_SIZE && bytes[0] == MAGIC;
+    }
+
+    private CacheValueCodec codec(byte[] bytes) {
+        if (bytes[1] != FORMAT_VERSION) {
+            throw new IllegalStateException("不支持的缓存值头部版本: " + bytes[1]);
+        }
+        CacheValueCodec codec = bytes[2] > 0 ? codecs[bytes[2]] : null;
+        if (codec == null) {
+            throw new IllegalStateException("未知的缓存编解码器id: " + bytes[2]);
+        }
+        return codec;
+    }
+
+    private static byte[] body(byte[] bytes) {
+        if ((bytes[3] & FLAG_DEFLATE) == 0) {
+            return Arrays.copyOfRange(bytes, HEADER_SIZE, bytes.length);
+        }
+        int length = ByteBuffer.wrap(bytes, HEADER_SIZE, Integer.BYTES).getInt();
+        return inflate(bytes, HEADER_SIZE + Integer.BYTES, length);
+    }
+
+    private static byte[] deflate(byte[] body) {
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            deflater.setInput(body);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(body.length / 2 + 16);
+            byte[] buffer = new byte[4096];
+            while (!deflater.finished()) {
+                out.write(buffer, 0, deflater.deflate(buffer));
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static byte[] inflate(byte[] bytes, int offset, int length) {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(bytes, offset, bytes.length - offset);
+            byte[] body = new byte[length];
+            int n = 0;
+            while (n < length && !inflater.finished()) {
+                int read = inflater.inflate(body, n, length - n);
+                if (read == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                n += read;
+            }
+            if (n != length) {
+                throw new IllegalStateException("缓存值解压后的长度不一致");
+            }
+            return body;
+        } catch (DataFormatException e) {
+            throw new IllegalStateException("缓存值解压失败", e);
+        } finally {
+            inflater.end();
+        }
+    }
+}
@@ -0,0 +1,179 @@
+package com.hmdp.utils;
+
+import com.hmdp.dto.ExpiryDistribution;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * 统计一个key前缀下缓存的过期时间分布, 用于检查预热或批量写入的key是否集中在同一时刻过期
+ *
+ * 用SCAN遍历前缀下的全部key, 用蓄水池抽样均匀地选出sampleSize个(SCAN返回的顺序与key的写入时间相关,
+ * 只取前面的会偏向同一批写入的key), 再分批pipeline读取PTTL和值: 有TTL的按TTL统计,
+ * 没有TTL的按逻辑过期格式解析expireTime。SCAN不会阻塞redis, 只读取抽样key的值, 但key很多时遍历需要一些时间。
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class CacheExpiryInspector {
+
+    private static final int SCAN_COUNT = 1000;
+
+    private static final int PIPELINE_SIZE = 500;
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    private final CacheCodecRegistry cacheCodecRegistry;
+
+    /**
+     * @param prefix key前缀, 例如 cache:shop:
+     * @param sampleSize 最多抽样的key数
+     * @param bucketSeconds 分桶的宽度, 必须大于0
+     */
+    public ExpiryDistribution inspect(String prefix, int sampleSize, long bucketSeconds) {
+        if (bucketSeconds <= 0) {
+            throw new IllegalArgumentException("bucketSeconds必须大于0");
+        }
+        long[] scanned = new long[1];
+        List<byte[]> keys = sample(prefix, sampleSize, scanned);
+        LocalDateTime now = LocalDateTime.now();
+        long bucketMillis = bucketSeconds * 1000;
+
+        int ttlKeys = 0, logicalKeys = 0, logicalExpired = 0, noExpiry = 0;
+        Map<Long, Integer> buckets = new TreeMap<>();
+        Map<Long, Integer> seconds = new HashMap<>();
+        for (int from = 0; from < keys.size(); from += PIPELINE_SIZE) {
+            List<byte[]> batch = keys.subList(from, Math.min(keys.size(), from + PIPELINE_SIZE));
+            List<Object> results = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                for (byte[] key : batch) {
+                    connection.pTtl(key);
+                    connection.get(key);
+                }
+                return null;
+            }, null);
+            for (int i = 0; i < batch.size(); i++) {
+                Long ttl = (Long) results.get(2 * i);
+                byte[] value = (byte[]) results.get(2 * i + 1);
+                long remainMillis;
+                if (ttl != null && ttl >= 0) {
+                    ttlKeys++;
+                    remainMillis = ttl;
+                } else {
+                    LocalDateTime expireTime = logicalExpireTime(value);
+                    if (expireTime == null) {
+                        // 没有TTL且不是逻辑过期格式, 或者在PTTL和GET之间被删除
+                        noExpiry++;
+                        continue;
+                    }
+                    if (!expireTime.isAfter(now)) {
+                        logicalExpired++;
+                        continue;
+                    }
+                    logicalKeys++;
+                    remainMillis = Duration.between(now, expireTime).toMillis();
+                }
+                buckets.merge(remainMillis / bucketMillis * bucketSeconds, 1, Integer::sum);
+                seconds.merge(remainMillis / 1000, 1, Integer::sum);
+            }
+        }
+
+        ExpiryDistribution distribution = new ExpiryDistribution();
+        distribution.setPrefix(prefix);
+        distribution.setScanned(scanned[0]);
+        distribution.setSampled(keys.size());
+        distribution.setTtlKeys(ttlKeys);
+        distribution.setLogicalKeys(logicalKeys);
+        distribution.setLogicalExpired(logicalExpired);
+        distribution.setNoExpiry(noExpiry);
+        int peak = 0;
+        for (Map.Entry<Long, Integer> entry : seconds.entrySet()) {
+            if (entry.getValue() > peak) {
+                peak = entry.getValue();
+                distribution.setPeakSecond(now.plusSeconds(entry.getKey()).truncatedTo(ChronoUnit.SECONDS));
+            }
+        }
+        distribution.setPeakPerSecond(peak);
+        List<ExpiryDistribution.Bucket> list = new ArrayList<>(buckets.size());
+        buckets.forEach((bucketFrom, count) -> {
+            ExpiryDistribution.Bucket bucket = new ExpiryDistribution.Bucket();
+            bucket.setFrom(bucketFrom);
+            bucket.setCount(count);
+            list.add(bucket);
+        });
+        distribution.setBuckets(list);
+        return distribution;
+    }
+
+    /**
+     * 遍历前缀下的所有key, 蓄水池抽样: 第n个key以 sampleSize/n 的概率替换已选中的一个
+     * @param scanned 输出遍历到的key总数
+     */
+    private List<byte[]> sample(String prefix, int sampleSize, long[] scanned) {
+        ScanOptions options = ScanOptions.scanOptions().match(escape(prefix) + "*").count(SCAN_COUNT).build();
+        List<byte[]> keys = stringRedisTemplate.execute((RedisCallback<List<byte[]>>) connection -> {
+            List<byte[]> result = new ArrayList<>();
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            try (Cursor<byte[]> cursor = connection.scan(options)) {
+                while (cursor.hasNext()) {
+                    byte[] key = cursor.next();
+                    long n = ++scanned[0];
+                    if (result.size() < sampleSize) {
+                        result.add(key);
+                    } else {
+                        long j = random.nextLong(n);
+                        if (j < sampleSize) {
+                            result.set((int) j, key);
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                log.warn("关闭SCAN游标失败", e);
+            }
+            return result;
+        });
+        return keys == null ? new ArrayList<>() : keys;
+    }
+
+    /**
+     * 按逻辑过期格式解析, 不是该格式时返回null
+     */
+    private LocalDateTime logicalExpireTime(byte[] value) {
+        if (value == null || value.length == 0) {
+            return null;
+        }
+        try {
+            return cacheCodecRegistry.decodeLogical(value, Object.class).getExpireTime();
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    /**
+     * 转义SCAN匹配模式中的特殊字符
+     */
+    private static String escape(String prefix) {
+        StringBuilder sb = new StringBuilder(prefix.length());
+        for (char c : prefix.toCharArray()) {
+            if (c == '*' || c == '?' || c == '[' || c == ']' || c == '\\') {
+                sb.append('\\');
+            }
+            sb.append(c);
+        }
+        return sb.toString();
+    }
+}
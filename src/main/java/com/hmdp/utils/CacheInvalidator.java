@@ -0,0 +1,191 @@
+package com.hmdp.utils;
+
+import com.hmdp.config.CacheClientProperties;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 数据更新后的缓存删除, 适用于任意实体: 调用方只需给出要删除的缓存key
+ *
+ * 在事务中调用时, 等事务提交后才删除, 避免提交前被并发的查询用旧数据重建缓存; 不在事务中时立即排队。
+ * 调用线程只把key放入队列, 不等待redis。后台线程每隔flushInterval把队列中的key合并为一次pipeline删除,
+ * 删除成功后再延迟secondDeleteDelay删除一次(延迟双删), 清除删除与提交之间被读请求写回的旧数据;
+ * 删除失败的key按retryInterval指数退避重试, 超过maxAttempts后放弃, 依靠缓存的过期时间兜底。
+ *
+ * 指标: hmdp.cache.invalidations{result=deleted|retried|failed|dropped}, hmdp.cache.invalidation.queue
+ */
+@Slf4j
+@Component
+public class CacheInvalidator {
+
+    private final CacheClient cacheClient;
+
+    private final CacheClientProperties.Invalidation config;
+
+    private final BlockingQueue<Entry> queue;
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "cache-invalidator");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final Counter deletedCounter;
+    private final Counter retriedCounter;
+    private final Counter failedCounter;
+    private final Counter droppedCounter;
+
+    private static class Entry {
+        final String key;
+        /**
+         * 已经失败的次数
+         */
+        final int failures;
+        /**
+         * 是否是延迟双删的第二次删除
+         */
+        final boolean second;
+
+        Entry(String key, int failures, boolean second) {
+            this.key = key;
+            this.failures = failures;
+            this.second = second;
+        }
+    }
+
+    public CacheInvalidator(CacheClient cacheClient, CacheClientProperties cacheClientProperties, MeterRegistry meterRegistry) {
+        this.cacheClient = cacheClient;
+        this.config = cacheClientProperties.getInvalidation();
+        this.queue = new LinkedBlockingQueue<>(Math.max(1, config.getQueueCapacity()));
+        deletedCounter = meterRegistry.counter("hmdp.cache.invalidations", "result", "deleted");
+        retriedCounter = meterRegistry.counter("hmdp.cache.invalidations", "result", "retried");
+        failedCounter = meterRegistry.counter("hmdp.cache.invalidations", "result", "failed");
+        droppedCounter = meterRegistry.counter("hmdp.cache.invalidations", "result", "dropped");
+        meterRegistry.gaugeCollectionSize("hmdp.cache.invalidation.queue", Collections.emptyList(), queue);
+
+        long interval = config.getFlushInterval().toMillis();
+        scheduler.scheduleWithFixedDelay(this::flush, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 删除一个缓存key, 在事务中时等提交后删除
+     */
+    public void invalidate(String key) {
+        invalidate(Collections.singletonList(key));
+    }
+
+    /**
+     * 删除一批实体的缓存, key为 keyPrefix + id
+     */
+    public void invalidate(String keyPrefix, Collection<?> ids) {
+        List<String> keys = new ArrayList<>(ids.size());
+        for (Object id : ids) {
+            keys.add(keyPrefix + id);
+        }
+        invalidate(keys);
+    }
+
+    /**
+     * 删除一批缓存key, 在事务中时等提交后删除, 事务回滚时不删除
+     */
+    public void invalidate(List<String> keys) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            enqueue(keys);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                enqueue(keys);
+            }
+        });
+    }
+
+    /**
+     * 停机前删除队列中剩余的key, 等待中的第二次删除和重试会被放弃
+     */
+    @PreDestroy
+    private void destroy() throws InterruptedException {
+        scheduler.shutdown();
+        scheduler.awaitTermination(config.getFlushInterval().toMillis() * 10, TimeUnit.MILLISECONDS);
+        flush();
+    }
+
+    private void enqueue(List<String> keys) {
+        for (String key : keys) {
+            offer(new Entry(key, 0, false));
+        }
+    }
+
+    private void offer(Entry entry) {
+        if (!queue.offer(entry)) {
+            droppedCounter.increment();
+            log.error("缓存删除队列已满, 放弃删除key: {}, 等待缓存过期", entry.key);
+        }
+    }
+
+    /**
+     * 按batchSize分批用pipeline删除队列中的key
+     */
+    private void flush() {
+        List<Entry> batch = new ArrayList<>(config.getBatchSize());
+        while (queue.drainTo(batch, Math.max(1, config.getBatchSize())) > 0) {
+            List<String> keys = new ArrayList<>(batch.size());
+            for (Entry entry : batch) {
+                keys.add(entry.key);
+            }
+            try {
+                cacheClient.deleteBatch(keys);
+                deletedCounter.increment(batch.size());
+                scheduleSecondDelete(batch);
+            } catch (Exception e) {
+                log.warn("批量删除缓存失败, {}个key稍后重试", batch.size(), e);
+                batch.forEach(this::retry);
+            }
+            batch.clear();
+        }
+    }
+
+    private void scheduleSecondDelete(List<Entry> batch) {
+        long delay = config.getSecondDeleteDelay().toMillis();
+        if (delay <= 0 || scheduler.isShutdown()) {
+            return;
+        }
+        List<Entry> seconds = new ArrayList<>(batch.size());
+        for (Entry entry : batch) {
+            if (!entry.second) {
+                seconds.add(new Entry(entry.key, 0, true));
+            }
+        }
+        if (!seconds.isEmpty()) {
+            scheduler.schedule(() -> seconds.forEach(this::offer), delay, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void retry(Entry entry) {
+        int failures = entry.failures + 1;
+        if (failures >= config.getMaxAttempts() || scheduler.isShutdown()) {
+            failedCounter.increment();
+            log.error("删除缓存key: {} 失败{}次, 放弃删除, 等待缓存过期", entry.key, failures);
+            return;
+        }
+        retriedCounter.increment();
+        long delay = config.getRetryInterval().toMillis() << Math.min(failures - 1, 10);
+        scheduler.schedule(() -> offer(new Entry(entry.key, failures, entry.second)), delay, TimeUnit.MILLISECONDS);
+    }
+}
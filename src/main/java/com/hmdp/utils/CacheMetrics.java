@@ -0,0 +1,109 @@
+package com.hmdp.utils;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 缓存的Micrometer指标, 按key前缀打标签(prefix), 通过 /actuator/metrics 查看
+ *
+ * hmdp.cache.gets        每次查询的结果: result=local(本地缓存命中) / hit / miss / null(命中空值) / expired(命中已逻辑过期的数据)
+ * hmdp.cache.locks       获取重建互斥锁: result=acquired / failed
+ * hmdp.cache.rebuilds    查询数据库后回写缓存的key数
+ * hmdp.cache.redis.get   读取redis的耗时, 批量查询一次MGET记录一次
+ * hmdp.cache.decode      反序列化的耗时
+ * hmdp.cache.db.load     查询数据库的耗时, 批量查询一次记录一次
+ * 耗时的分位数和直方图在 management.metrics.distribution 中配置。
+ */
+@Component
+@RequiredArgsConstructor
+public class CacheMetrics {
+
+    private final MeterRegistry meterRegistry;
+
+    /**
+     * key前缀 -> 该前缀的指标, 避免每次记录都重新查找
+     */
+    private final Map<String, Meters> byPrefix = new ConcurrentHashMap<>();
+
+    public Meters of(String keyPrefix) {
+        return byPrefix.computeIfAbsent(keyPrefix, prefix -> new Meters(meterRegistry, prefix));
+    }
+
+    public static class Meters {
+        private final Counter localHit;
+        private final Counter hit;
+        private final Counter miss;
+        private final Counter nullHit;
+        private final Counter expiredHit;
+        private final Counter lockAcquired;
+        private final Counter lockFailed;
+        private final Counter rebuilds;
+        private final Timer redisGet;
+        private final Timer decode;
+        private final Timer dbLoad;
+
+        private Meters(MeterRegistry registry, String prefix) {
+            localHit = registry.counter("hmdp.cache.gets", "prefix", prefix, "result", "local");
+            hit = registry.counter("hmdp.cache.gets", "prefix", prefix, "result", "hit");
+            miss = registry.counter("hmdp.cache.gets", "prefix", prefix, "result", "miss");
+            nullHit = registry.counter("hmdp.cache.gets", "prefix", prefix, "result", "null");
+            expiredHit = registry.counter("hmdp.cache.gets", "prefix", prefix, "result", "expired");
+            lockAcquired = registry.counter("hmdp.cache.locks", "prefix", prefix, "result", "acquired");
+            lockFailed = registry.counter("hmdp.cache.locks", "prefix", prefix, "result", "failed");
+            rebuilds = registry.counter("hmdp.cache.rebuilds", "prefix", prefix);
+            redisGet = registry.timer("hmdp.cache.redis.get", "prefix", prefix);
+            decode = registry.timer("hmdp.cache.decode", "prefix", prefix);
+            dbLoad = registry.timer("hmdp.cache.db.load", "prefix", prefix);
+        }
+
+        public void localHit() {
+            localHit.increment();
+        }
+
+        public void hit() {
+            hit.increment();
+        }
+
+        public void miss() {
+            miss.increment();
+        }
+
+        public void nullHit() {
+            nullHit.increment();
+        }
+
+        public void expiredHit() {
+            expiredHit.increment();
+        }
+
+        public void lock(boolean acquired) {
+            (acquired ? lockAcquired : lockFailed).increment();
+        }
+
+        public void rebuilt(int keys) {
+            rebuilds.increment(keys);
+        }
+
+        /**
+         * @param startNanos 开始时的System.nanoTime()
+         */
+        public void redisGet(long startNanos) {
+            redisGet.record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+        }
+
+        public void decode(long startNanos) {
+            decode.record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+        }
+
+        public void dbLoad(long startNanos) {
+            dbLoad.record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+        }
+    }
+}
@@ -0,0 +1,190 @@
+package com.hmdp.utils;
+
+import com.hmdp.config.CacheClientProperties;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 异步缓存重建的线程池
+ *
+ * 排队的任务数不超过 queueCapacity, 超出时按 overflow 丢弃或由提交的线程自己执行, 数据库变慢时不会在内存中无限堆积任务。
+ * 同一个key在排队或执行中时, 再次提交直接合并到已有的任务。排队的任务按key的热度(HotKeyDetector的估计访问次数)
+ * 从高到低执行, 热度相同时先提交的先执行。
+ *
+ * 指标: hmdp.cache.rebuild.tasks{result=queued|collapsed|rejected|caller_runs|failed},
+ * hmdp.cache.rebuild.queue(排队数), hmdp.cache.rebuild.wait(排队耗时)
+ */
+@Slf4j
+@Component
+public class CacheRebuildExecutor {
+
+    private final HotKeyDetector hotKeyDetector;
+
+    private final CacheClientProperties.Rebuild config;
+
+    private final ThreadPoolExecutor executor;
+
+    /**
+     * 排队或执行中的key -> 任务
+     */
+    private final Map<String, Task> pending = new ConcurrentHashMap<>();
+
+    /**
+     * 排队中(未开始执行)的任务数
+     */
+    private final AtomicInteger queued = new AtomicInteger();
+
+    private final AtomicLong sequence = new AtomicLong();
+
+    private final Counter queuedCounter;
+    private final Counter collapsedCounter;
+    private final Counter rejectedCounter;
+    private final Counter callerRunsCounter;
+    private final Counter failedCounter;
+    private final Timer waitTimer;
+
+    public CacheRebuildExecutor(CacheClientProperties cacheClientProperties, HotKeyDetector hotKeyDetector,
+                                MeterRegistry meterRegistry) {
+        this.hotKeyDetector = hotKeyDetector;
+        this.config = cacheClientProperties.getRebuild();
+        int threads = Math.max(1, config.getThreads());
+        AtomicInteger threadIndex = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS, new PriorityBlockingQueue<>(), r -> {
+            Thread thread = new Thread(r, "cache-rebuild-" + threadIndex.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        queuedCounter = meterRegistry.counter("hmdp.cache.rebuild.tasks", "result", "queued");
+        collapsedCounter = meterRegistry.counter("hmdp.cache.rebuild.tasks", "result", "collapsed");
+        rejectedCounter = meterRegistry.counter("hmdp.cache.rebuild.tasks", "result", "rejected");
+        callerRunsCounter = meterRegistry.counter("hmdp.cache.rebuild.tasks", "result", "caller_runs");
+        failedCounter = meterRegistry.counter("hmdp.cache.rebuild.tasks", "result", "failed");
+        waitTimer = meterRegistry.timer("hmdp.cache.rebuild.wait");
+        meterRegistry.gauge("hmdp.cache.rebuild.queue", queued);
+    }
+
+    /**
+     * 提交结果: ACCEPTED 任务已排队或已由提交线程执行; COLLAPSED 合并到了已有的任务, 本次的task不会执行;
+     * REJECTED 队列已满且overflow为drop, task不会执行。后两种情况调用方需要自行释放为task获取的资源(例如互斥锁)
+     */
+    public enum SubmitResult {
+        ACCEPTED, COLLAPSED, REJECTED
+    }
+
+    /**
+     * 提交一个key的重建任务, 优先级为key的热度
+     * @param key 缓存key, 用于合并重复任务
+     * @param task 重建逻辑, 抛出的异常只记录日志
+     */
+    public SubmitResult submit(String key, Runnable task) {
+        return submit(key, hotKeyDetector.count(key), task);
+    }
+
+    /**
+     * 提交一批key的重建任务, 优先级为其中最热的key的热度
+     * @param batchKey 用于合并重复任务, 需要能区分这一批key
+     */
+    public SubmitResult submit(String batchKey, Collection<String> keys, Runnable task) {
+        long priority = 0;
+        for (String key : keys) {
+            priority = Math.max(priority, hotKeyDetector.count(key));
+        }
+        return submit(batchKey, priority, task);
+    }
+
+    private SubmitResult submit(String key, long priority, Runnable task) {
+        Task rebuild = new Task(key, task, priority, sequence.incrementAndGet());
+        if (pending.putIfAbsent(key, rebuild) != null) {
+            collapsedCounter.increment();
+            return SubmitResult.COLLAPSED;
+        }
+        if (queued.incrementAndGet() > config.getQueueCapacity() || executor.isShutdown()) {
+            queued.decrementAndGet();
+            pending.remove(key, rebuild);
+            if (config.getOverflow() == CacheClientProperties.Overflow.CALLER_RUNS && !executor.isShutdown()) {
+                callerRunsCounter.increment();
+                rebuild.execute();
+                return SubmitResult.ACCEPTED;
+            }
+            rejectedCounter.increment();
+            log.warn("缓存重建队列已满, 丢弃key: {}", key);
+            return SubmitResult.REJECTED;
+        }
+        try {
+            executor.execute(rebuild);
+        } catch (RejectedExecutionException e) {
+            // 检查之后线程池刚好关闭
+            queued.decrementAndGet();
+            pending.remove(key, rebuild);
+            rejectedCounter.increment();
+            return SubmitResult.REJECTED;
+        }
+        queuedCounter.increment();
+        return SubmitResult.ACCEPTED;
+    }
+
+    /**
+     * 停止接收新任务, 等待排队的任务执行完, 超过shutdownTimeout后中断
+     */
+    @PreDestroy
+    private void destroy() throws InterruptedException {
+        executor.shutdown();
+        if (!executor.awaitTermination(config.getShutdownTimeout().toMillis(), TimeUnit.MILLISECONDS)) {
+            log.warn("缓存重建线程池在{}内没有结束, 剩余{}个任务放弃执行", config.getShutdownTimeout(), executor.shutdownNow().size());
+        }
+    }
+
+    private class Task implements Runnable, Comparable<Task> {
+        final String key;
+        final Runnable task;
+        final long priority;
+        final long seq;
+        final long submitNanos = System.nanoTime();
+
+        Task(String key, Runnable task, long priority, long seq) {
+            this.key = key;
+            this.task = task;
+            this.priority = priority;
+            this.seq = seq;
+        }
+
+        @Override
+        public void run() {
+            queued.decrementAndGet();
+            waitTimer.record(System.nanoTime() - submitNanos, TimeUnit.NANOSECONDS);
+            execute();
+        }
+
+        void execute() {
+            try {
+                task.run();
+            } catch (Exception e) {
+                failedCounter.increment();
+                log.error("缓存重建失败, key: {}", key, e);
+            } finally {
+                pending.remove(key, this);
+            }
+        }
+
+        @Override
+        public int compareTo(Task other) {
+            int byPriority = Long.compare(other.priority, priority);
+            return byPriority != 0 ? byPriority : Long.compare(seq, other.seq);
+        }
+    }
+}
@@ -0,0 +1,11 @@
+package com.hmdp.utils;
+
+/**
+ * 等待缓存重建超时, 说明数据库或持有互斥锁的节点过慢, 请求直接失败而不是继续占用线程
+ */
+public class CacheRebuildTimeoutException extends RuntimeException {
+
+    public CacheRebuildTimeoutException(String key) {
+        super("等待缓存重建超时: " + key);
+    }
+}
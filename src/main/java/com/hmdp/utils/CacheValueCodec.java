@@ -0,0 +1,29 @@
+package com.hmdp.utils;
+
+/**
+ * 缓存值的序列化方式
+ *
+ * 每种实现有一个固定的id, 写入redis时记录在值的头部, 读取时按头部选择对应的实现解码。
+ * 因此id一旦使用就不能再分配给其他实现, 否则滚动发布期间会读错旧数据。
+ */
+public interface CacheValueCodec {
+
+    /**
+     * 写入值头部的编号, 1-127
+     */
+    byte id();
+
+    /**
+     * 配置中使用的名称, 对应 hmdp.cache.codec.write
+     */
+    String name();
+
+    byte[] encode(Object value);
+
+    <T> T decode(byte[] bytes, Class<T> type);
+
+    /**
+     * 解码逻辑过期的包装, data直接解码为type, 不需要再转换一次
+     */
+    <T> RedisData<T> decodeLogical(byte[] bytes, Class<T> type);
+}
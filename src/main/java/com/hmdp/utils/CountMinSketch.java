@@ -0,0 +1,71 @@
+package com.hmdp.utils;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Count-Min Sketch, 用固定大小的计数器数组估计字符串出现的次数, 线程安全, 不加锁
+ *
+ * depth行计数器, 每行width个, 每个key在每行命中一个计数器, 估计值取各行的最小值。
+ * 估计值只会偏大不会偏小, 偏大的量不超过 总次数 * e / width 的概率为 1 - e^-depth。
+ */
+public class CountMinSketch {
+
+    private final int depth;
+
+    private final int mask;
+
+    private final AtomicIntegerArray counters;
+
+    /**
+     * @param depth 行数, 即哈希函数个数
+     * @param width 每行计数器个数, 向上取整为2的幂
+     */
+    public CountMinSketch(int depth, int width) {
+        this.depth = Math.max(1, depth);
+        int w = Integer.highestOneBit(Math.max(2, width - 1)) << 1;
+        this.mask = w - 1;
+        this.counters = new AtomicIntegerArray(this.depth * w);
+    }
+
+    /**
+     * 计数加1
+     * @return 加1之后的估计值
+     */
+    public int increment(String key) {
+        int h1 = mix(key.hashCode());
+        int h2 = mix(h1 ^ 0x9E3779B9) | 1;
+        int min = Integer.MAX_VALUE;
+        for (int i = 0; i < depth; i++) {
+            min = Math.min(min, counters.incrementAndGet(i * (mask + 1) + ((h1 + i * h2) & mask)));
+        }
+        return min;
+    }
+
+    public int estimate(String key) {
+        int h1 = mix(key.hashCode());
+        int h2 = mix(h1 ^ 0x9E3779B9) | 1;
+        int min = Integer.MAX_VALUE;
+        for (int i = 0; i < depth; i++) {
+            min = Math.min(min, counters.get(i * (mask + 1) + ((h1 + i * h2) & mask)));
+        }
+        return min;
+    }
+
+    /**
+     * 清零, 与并发的increment之间没有同步, 清零期间的少量计数可能保留或丢失
+     */
+    public void clear() {
+        for (int i = 0; i < counters.length(); i++) {
+            counters.lazySet(i, 0);
+        }
+    }
+
+    private static int mix(int h) {
+        h ^= h >>> 16;
+        h *= 0x85EBCA6B;
+        h ^= h >>> 13;
+        h *= 0xC2B2AE35;
+        h ^= h >>> 16;
+        return h;
+    }
+}
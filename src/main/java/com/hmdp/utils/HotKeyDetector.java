@@ -0,0 +1,183 @@
+package com.hmdp.utils;
+
+import com.hmdp.config.CacheClientProperties;
+import com.hmdp.dto.HotKeyStats;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 本节点的热点key探测
+ *
+ * 按 sampleRate 抽样记录缓存key的访问, 计入滑动窗口: 窗口分为若干个桶, 每个桶一个CountMinSketch,
+ * 每过一个桶的时长清空最旧的桶。key在整个窗口内的估计访问次数超过热点阈值的一半时进入候选集合,
+ * 候选集合最多保留topK个, 满了之后替换次数最少的; 估计QPS达到hotQps的候选即为热点key。
+ * 统计只反映本节点的访问, 多节点部署时各节点分别探测。
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class HotKeyDetector {
+
+    private final CacheClientProperties cacheClientProperties;
+
+    private CountMinSketch[] buckets;
+
+    private volatile int current;
+
+    /**
+     * 候选key -> 窗口内的估计访问次数(已按抽样比例换算)
+     */
+    private final Map<String, Long> candidates = new ConcurrentHashMap<>();
+
+    private ScheduledExecutorService scheduler;
+
+    private double sampleRate;
+
+    private double windowSeconds;
+
+    private long hotCount;
+
+    private long candidateCount;
+
+    private int topK;
+
+    @PostConstruct
+    private void init() {
+        CacheClientProperties.HotKey config = cacheClientProperties.getHotKey();
+        if (!config.isEnabled()) {
+            return;
+        }
+        sampleRate = Math.min(1.0, Math.max(config.getSampleRate(), 1e-6));
+        windowSeconds = config.getWindow().toMillis() / 1000.0;
+        hotCount = Math.max(1, (long) (config.getHotQps() * windowSeconds));
+        candidateCount = hotCount / 2;
+        topK = Math.max(1, config.getTopK());
+        CountMinSketch[] sketches = new CountMinSketch[Math.max(2, config.getBuckets())];
+        for (int i = 0; i < sketches.length; i++) {
+            sketches[i] = new CountMinSketch(config.getDepth(), config.getWidth());
+        }
+        buckets = sketches;
+
+        long interval = config.getWindow().toMillis() / buckets.length;
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "hot-key-detector");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleAtFixedRate(this::rotate, interval, interval, TimeUnit.MILLISECONDS);
+        log.info("热点key探测已启用, 窗口: {}s, 抽样比例: {}, 热点阈值: {} QPS", windowSeconds, sampleRate, config.getHotQps());
+    }
+
+    @PreDestroy
+    private void destroy() {
+        if (scheduler != null) {
+            scheduler.shutdown();
+        }
+    }
+
+    public boolean isEnabled() {
+        return buckets != null;
+    }
+
+    /**
+     * 记录一次访问, 未被抽中时只有一次随机数的开销
+     */
+    public void record(String key) {
+        if (buckets == null || ThreadLocalRandom.current().nextDouble() >= sampleRate) {
+            return;
+        }
+        buckets[current].increment(key);
+        long count = estimate(key);
+        if (count < candidateCount) {
+            return;
+        }
+        if (candidates.containsKey(key)) {
+            candidates.put(key, count);
+        } else {
+            offer(key, count);
+        }
+    }
+
+    /**
+     * key当前是否是热点
+     */
+    public boolean isHot(String key) {
+        Long count = candidates.get(key);
+        return count != null && count >= hotCount;
+    }
+
+    /**
+     * 候选key在窗口内的估计访问次数, 不是候选时返回0
+     */
+    public long count(String key) {
+        Long count = candidates.get(key);
+        return count == null ? 0 : count;
+    }
+
+    /**
+     * 候选key及其估计QPS, 按QPS从高到低排列
+     */
+    public List<HotKeyStats> hotKeys() {
+        List<HotKeyStats> result = new ArrayList<>();
+        candidates.forEach((key, count) -> {
+            HotKeyStats stats = new HotKeyStats();
+            stats.setKey(key);
+            stats.setQps(count / windowSeconds);
+            stats.setHot(count >= hotCount);
+            result.add(stats);
+        });
+        result.sort(Comparator.comparing(HotKeyStats::getQps).reversed());
+        return result;
+    }
+
+    /**
+     * 加入候选集合, 已满时替换次数最少且少于count的key
+     */
+    private synchronized void offer(String key, long count) {
+        if (candidates.size() >= topK) {
+            Map.Entry<String, Long> min = null;
+            for (Map.Entry<String, Long> entry : candidates.entrySet()) {
+                if (min == null || entry.getValue() < min.getValue()) {
+                    min = entry;
+                }
+            }
+            if (min == null || min.getValue() >= count) {
+                return;
+            }
+            candidates.remove(min.getKey());
+        }
+        candidates.put(key, count);
+    }
+
+    /**
+     * 清空最旧的桶作为新的当前桶, 并重新估计候选key, 移除已经冷却的
+     */
+    private void rotate() {
+        int next = (current + 1) % buckets.length;
+        buckets[next].clear();
+        current = next;
+        candidates.replaceAll((key, count) -> estimate(key));
+        candidates.values().removeIf(count -> count < candidateCount);
+    }
+
+    private long estimate(String key) {
+        long sum = 0;
+        for (CountMinSketch bucket : buckets) {
+            sum += bucket.estimate(key);
+        }
+        return (long) (sum / sampleRate);
+    }
+}
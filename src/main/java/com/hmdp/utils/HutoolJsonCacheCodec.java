@@ -0,0 +1,46 @@
+package com.hmdp.utils;
+
+import cn.hutool.json.JSONObject;
+import cn.hutool.json.JSONUtil;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 引入编解码配置之前的格式: hutool生成的json文本, 不带头部
+ *
+ * 值的第一个字节不是头部标记时按这种格式解码, 因此旧版本写入的缓存在升级后仍然可以读取。
+ * 逻辑过期的包装需要先解析为RedisData, 再把data从JSONObject转换一次。
+ */
+public class HutoolJsonCacheCodec implements CacheValueCodec {
+
+    @Override
+    public byte id() {
+        return 0;
+    }
+
+    @Override
+    public String name() {
+        return "hutool";
+    }
+
+    @Override
+    public byte[] encode(Object value) {
+        return JSONUtil.toJsonStr(value).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public <T> T decode(byte[] bytes, Class<T> type) {
+        return JSONUtil.toBean(new String(bytes, StandardCharsets.UTF_8), type);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> RedisData<T> decodeLogical(byte[] bytes, Class<T> type) {
+        RedisData<Object> redisData = JSONUtil.toBean(new String(bytes, StandardCharsets.UTF_8), RedisData.class);
+        RedisData<T> result = new RedisData<>();
+        result.setExpireTime(redisData.getExpireTime());
+        result.setRebuildMillis(redisData.getRebuildMillis());
+        result.setData(JSONUtil.toBean((JSONObject) redisData.getData(), type));
+        return result;
+    }
+}
@@ -0,0 +1,89 @@
+package com.hmdp.utils;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 基于Jackson的缓存值编解码, json为文本格式, smile为同样数据模型的二进制格式
+ *
+ * 忽略未知字段, 滚动发布期间新版本给实体增加的字段不会导致旧版本解码失败。
+ */
+public class JacksonCacheCodec implements CacheValueCodec {
+
+    private final byte id;
+
+    private final String name;
+
+    private final ObjectMapper mapper;
+
+    /**
+     * type -> RedisData<type>
+     */
+    private final Map<Class<?>, JavaType> logicalTypes = new ConcurrentHashMap<>();
+
+    private JacksonCacheCodec(byte id, String name, JsonFactory factory) {
+        this.id = id;
+        this.name = name;
+        this.mapper = new ObjectMapper(factory)
+                .registerModule(new JavaTimeModule())
+                .setSerializationInclusion(JsonInclude.Include.NON_NULL)
+                .disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
+    }
+
+    public static JacksonCacheCodec json() {
+        return new JacksonCacheCodec((byte) 1, "json", new JsonFactory());
+    }
+
+    public static JacksonCacheCodec smile() {
+        return new JacksonCacheCodec((byte) 2, "smile", new SmileFactory());
+    }
+
+    @Override
+    public byte id() {
+        return id;
+    }
+
+    @Override
+    public String name() {
+        return name;
+    }
+
+    @Override
+    public byte[] encode(Object value) {
+        try {
+            return mapper.writeValueAsBytes(value);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public <T> T decode(byte[] bytes, Class<T> type) {
+        try {
+            return mapper.readValue(bytes, type);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public <T> RedisData<T> decodeLogical(byte[] bytes, Class<T> type) {
+        JavaType javaType = logicalTypes.computeIfAbsent(type,
+                t -> mapper.getTypeFactory().constructParametricType(RedisData.class, t));
+        try {
+            return mapper.readValue(bytes, javaType);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
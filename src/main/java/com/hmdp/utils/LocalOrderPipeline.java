@@ -0,0 +1,219 @@
+package com.hmdp.utils;
+
+import cn.hutool.json.JSONUtil;
+import com.hmdp.config.SeckillProperties;
+import com.hmdp.entity.VoucherOrder;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 本地下单模式: 秒杀脚本不再写入stream.orders, 订单先追加到内存映射的预写日志, 再放入环形缓冲区,
+ * 由一个消费线程按批写入数据库。适合单节点部署和压测, 多节点部署请使用stream模式。
+ *
+ * 写库失败时整批重试, 下单是幂等的, 重复写入不会重复扣减库存; 整批重试达到order.maxDeliveries次后逐单重试,
+ * 逐单仍然失败的订单追加到预写日志目录下的dead-letter.jsonl并置为FAILED, 与stream模式的死信队列对应。
+ * 重启时先重放预写日志中checkpoint之后的订单, 再开始接收新订单。
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class LocalOrderPipeline {
+
+    private static final String DEAD_LETTER_FILE = "dead-letter.jsonl";
+
+    private final SeckillProperties seckillProperties;
+
+    private final OrderStatusRegistry orderStatusRegistry;
+
+    private OrderRingBuffer ringBuffer;
+
+    private OrderWriteAheadLog writeAheadLog;
+
+    private Thread consumer;
+
+    private volatile boolean running;
+
+    /**
+     * 打开预写日志, 读取需要重放的订单, 启动消费线程
+     * @param handler 批量下单, 抛出异常表示需要重试
+     */
+    public void start(Consumer<List<VoucherOrder>> handler) throws IOException {
+        SeckillProperties.Local config = seckillProperties.getLocal();
+        writeAheadLog = new OrderWriteAheadLog(new File(config.getWalDir()), config.getWalSegmentSize().toBytes());
+
+        //1. 读取checkpoint之后的订单, 新订单从日志末尾继续编号
+        long from = writeAheadLog.checkpoint();
+        List<VoucherOrder> replay = new ArrayList<>();
+        long end = writeAheadLog.replay(from, replay::add);
+        if (!replay.isEmpty()) {
+            log.info("预写日志中有{}条订单尚未写库, 将重新下单", replay.size());
+        }
+
+        //2. 启动消费线程, 先处理重放的订单
+        ringBuffer = new OrderRingBuffer(config.getRingSize(), end);
+        running = true;
+        consumer = new Thread(() -> {
+            replay(replay, end, handler);
+            consume(end, handler);
+        }, "local-order-consumer");
+        consumer.start();
+        log.info("本地下单模式已启动, 环形缓冲区容量: {}, 预写日志目录: {}", ringBuffer.getCapacity(), config.getWalDir());
+    }
+
+    /**
+     * 接收一个秒杀成功的订单: 先写预写日志, 再放入环形缓冲区
+     */
+    public void publish(long orderId, long userId, long voucherId) {
+        long seq = ringBuffer.claim();
+        try {
+            writeAheadLog.append(seq, orderId, userId, voucherId);
+        } catch (Exception e) {
+            // 写日志失败也要发布, 否则消费线程会一直停在这个序号上
+            log.error("写入预写日志失败, 订单{}在进程崩溃时可能丢失", orderId, e);
+        } finally {
+            ringBuffer.publish(seq, orderId, userId, voucherId);
+        }
+    }
+
+    /**
+     * 环形缓冲区中尚未写库的订单数
+     */
+    public long backlog() {
+        return ringBuffer == null ? 0 : ringBuffer.size();
+    }
+
+    @PreDestroy
+    private void destroy() throws InterruptedException {
+        if (consumer == null) {
+            return;
+        }
+        // 消费线程会处理完缓冲区中剩余的订单后退出
+        running = false;
+        consumer.join(TimeUnit.SECONDS.toMillis(30));
+        writeAheadLog.close();
+    }
+
+    private void replay(List<VoucherOrder> orders, long end, Consumer<List<VoucherOrder>> handler) {
+        int batchSize = Math.max(1, seckillProperties.getOrder().getBatchSize());
+        for (int i = 0; i < orders.size(); i += batchSize) {
+            if (!handle(orders.subList(i, Math.min(orders.size(), i + batchSize)), handler)) {
+                return;
+            }
+        }
+        writeAheadLog.checkpoint(end);
+    }
+
+    private void consume(long start, Consumer<List<VoucherOrder>> handler) {
+        SeckillProperties.Order config = seckillProperties.getOrder();
+        int batchSize = Math.max(1, config.getBatchSize());
+        long lingerNanos = config.getMaxLinger().toNanos();
+        List<VoucherOrder> batch = new ArrayList<>(batchSize);
+        long cursor = start;
+        long deadline = 0;
+        while (running || cursor < ringBuffer.nextSequence()) {
+            //1. 取出已发布的订单, 攒满一批或超过maxLinger后提交
+            int n = ringBuffer.drain(cursor, batchSize - batch.size(), batch);
+            cursor += n;
+            if (batch.isEmpty()) {
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+                continue;
+            }
+            if (n > 0 && batch.size() == n) {
+                deadline = System.nanoTime() + lingerNanos;
+            }
+            if (batch.size() < batchSize && running && System.nanoTime() < deadline) {
+                LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(100));
+                continue;
+            }
+
+            //2. 写库成功后推进checkpoint并释放槽位
+            if (!handle(batch, handler)) {
+                // 停机时仍未成功, 留在预写日志中等待下次启动重放
+                return;
+            }
+            writeAheadLog.checkpoint(cursor);
+            ringBuffer.release(cursor);
+            batch.clear();
+        }
+    }
+
+    /**
+     * 下单失败时每秒整批重试一次, 最多order.maxDeliveries次; 仍然失败时逐单重试, 逐单也失败的订单转入死信文件
+     * @return 是否处理完这一批; 停机时仍未成功返回false, 订单留在预写日志中等待下次启动重放
+     */
+    private boolean handle(List<VoucherOrder> batch, Consumer<List<VoucherOrder>> handler) {
+        int maxAttempts = Math.max(1, seckillProperties.getOrder().getMaxDeliveries());
+        for (int attempt = 1; ; attempt++) {
+            try {
+                handler.accept(batch);
+                return true;
+            } catch (Exception e) {
+                log.error("本地下单模式写库失败, 第{}次", attempt, e);
+            }
+            if (!running) {
+                return false;
+            }
+            if (attempt >= maxAttempts) {
+                break;
+            }
+            LockSupport.parkNanos(TimeUnit.SECONDS.toNanos(1));
+        }
+
+        // 逐单重试, 只有真正无法写入的订单进入死信文件, 不会一直阻塞后面的订单
+        for (VoucherOrder voucherOrder : batch) {
+            if (batch.size() > 1) {
+                try {
+                    handler.accept(Collections.singletonList(voucherOrder));
+                    continue;
+                } catch (Exception e) {
+                    log.error("订单{}逐单重试失败", voucherOrder.getId(), e);
+                }
+            }
+            moveToDeadLetter(voucherOrder);
+        }
+        return true;
+    }
+
+    /**
+     * 把订单追加到死信文件并置为FAILED
+     */
+    private void moveToDeadLetter(VoucherOrder voucherOrder) {
+        Map<String, Object> line = new LinkedHashMap<>();
+        line.put("id", voucherOrder.getId());
+        line.put("userId", voucherOrder.getUserId());
+        line.put("voucherId", voucherOrder.getVoucherId());
+        line.put("deadTime", System.currentTimeMillis());
+        File file = new File(seckillProperties.getLocal().getWalDir(), DEAD_LETTER_FILE);
+        try (Writer writer = new BufferedWriter(new OutputStreamWriter(
+                new FileOutputStream(file, true), StandardCharsets.UTF_8))) {
+            writer.write(JSONUtil.toJsonStr(line));
+            writer.write('\n');
+        } catch (IOException e) {
+            log.error("写入死信文件失败: {}", line, e);
+        }
+        try {
+            orderStatusRegistry.markFailed(voucherOrder.getId(), "订单处理失败");
+        } catch (Exception e) {
+            log.error("订单{}状态置为FAILED失败", voucherOrder.getId(), e);
+        }
+        log.error("订单超过最大重试次数{}, 转入死信文件: {}", seckillProperties.getOrder().getMaxDeliveries(), line);
+    }
+}
@@ -0,0 +1,192 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.lang.UUID;
+import com.hmdp.config.SeckillProperties;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.ORDER_CONSUMER_INSTANCES_KEY;
+import static com.hmdp.utils.RedisConstants.ORDER_PARTITION_LEASE_KEY;
+
+/**
+ * 订单stream分区在所有节点间的归属
+ *
+ * 每个分区一个租约 order:partition:lease:{stream} = 持有者, SET NX PX获取, 定期续约, 只有持有租约的节点消费该分区,
+ * 保证同一张券的订单在整个集群内按顺序处理。各节点在 order:consumer:instances 中登记心跳,
+ * 每个节点最多持有 ceil(分区数 / 存活节点数) 个分区: 超出时由消费线程在两批之间释放, 不足时获取空闲的分区。
+ * 节点宕机后租约在partitionLeaseTtl后过期, 由其他节点接管。
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class OrderPartitionLeases {
+
+    private static final DefaultRedisScript<Long> RENEW_SCRIPT;
+    private static final DefaultRedisScript<Long> RELEASE_SCRIPT;
+
+    static {
+        RENEW_SCRIPT = new DefaultRedisScript<>();
+        RENEW_SCRIPT.setLocation(new ClassPathResource("renew.lua"));
+        RENEW_SCRIPT.setResultType(Long.class);
+        RELEASE_SCRIPT = new DefaultRedisScript<>();
+        RELEASE_SCRIPT.setLocation(new ClassPathResource("unlock.lua"));
+        RELEASE_SCRIPT.setResultType(Long.class);
+    }
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    private final SeckillProperties seckillProperties;
+
+    /**
+     * 本节点持有的分区 -> 是否等待释放
+     */
+    private final Map<String, Boolean> owned = new ConcurrentHashMap<>();
+
+    /**
+     * 分区 -> 本地视角下租约的到期时间, 续约因redis故障失败时, 到期后即使没有确认丢失也停止消费
+     */
+    private final Map<String, Long> deadlines = new ConcurrentHashMap<>();
+
+    private List<String> partitions = Collections.emptyList();
+
+    private String owner;
+
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * 开始争取分区租约
+     * @param instanceId 本节点的实例id, 加上随机后缀作为租约持有者, 重启后不会误认旧进程的租约
+     */
+    public void start(String instanceId, List<String> partitions) {
+        this.partitions = partitions;
+        this.owner = instanceId + ":" + UUID.randomUUID().toString(true);
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "order-partition-lease");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long interval = Math.max(1, seckillProperties.getOrder().getPartitionLeaseTtl().toMillis() / 3);
+        scheduler.scheduleWithFixedDelay(this::rebalance, 0, interval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 由消费线程在两批之间调用: 先释放其中等待释放的分区, 再返回本节点仍持有的分区
+     * @param candidates 该线程负责的分区
+     */
+    public List<String> owned(List<String> candidates) {
+        List<String> result = new ArrayList<>(candidates.size());
+        for (String partition : candidates) {
+            Boolean release = owned.get(partition);
+            if (release == null) {
+                continue;
+            }
+            if (release) {
+                owned.remove(partition);
+                deadlines.remove(partition);
+                stringRedisTemplate.execute(RELEASE_SCRIPT, Collections.singletonList(ORDER_PARTITION_LEASE_KEY + partition), owner);
+                log.info("释放订单分区{}", partition);
+                continue;
+            }
+            if (System.currentTimeMillis() < deadlines.getOrDefault(partition, 0L)) {
+                result.add(partition);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 停机时释放所有租约并注销心跳, 应在消费线程停止后调用
+     */
+    @PreDestroy
+    public void stop() {
+        if (scheduler == null) {
+            return;
+        }
+        scheduler.shutdown();
+        for (String partition : owned.keySet()) {
+            stringRedisTemplate.execute(RELEASE_SCRIPT, Collections.singletonList(ORDER_PARTITION_LEASE_KEY + partition), owner);
+        }
+        owned.clear();
+        deadlines.clear();
+        stringRedisTemplate.opsForZSet().remove(ORDER_CONSUMER_INSTANCES_KEY, owner);
+    }
+
+    /**
+     * 心跳、续约, 然后按配额释放多余的分区或获取空闲的分区
+     */
+    private void rebalance() {
+        try {
+            long now = System.currentTimeMillis();
+            long ttl = seckillProperties.getOrder().getPartitionLeaseTtl().toMillis();
+
+            //1. 心跳, 清理超过一个租约期没有心跳的节点
+            stringRedisTemplate.opsForZSet().add(ORDER_CONSUMER_INSTANCES_KEY, owner, now);
+            stringRedisTemplate.opsForZSet().removeRangeByScore(ORDER_CONSUMER_INSTANCES_KEY, 0, now - ttl);
+            Long zCard = stringRedisTemplate.opsForZSet().zCard(ORDER_CONSUMER_INSTANCES_KEY);
+            long live = Math.max(1, zCard == null ? 1 : zCard);
+            int quota = (int) ((partitions.size() + live - 1) / live);
+
+            //2. 续约, 失败说明租约已过期并可能被其他节点接管, 立即停止消费该分区
+            int active = 0;
+            for (Map.Entry<String, Boolean> entry : owned.entrySet()) {
+                Long renewed = stringRedisTemplate.execute(RENEW_SCRIPT,
+                        Collections.singletonList(ORDER_PARTITION_LEASE_KEY + entry.getKey()), owner, String.valueOf(ttl));
+                if (renewed == null || renewed != 1) {
+                    owned.remove(entry.getKey());
+                    deadlines.remove(entry.getKey());
+                    log.warn("订单分区{}的租约已丢失", entry.getKey());
+                    continue;
+                }
+                deadlines.put(entry.getKey(), now + ttl);
+                if (!entry.getValue()) {
+                    active++;
+                }
+            }
+
+            //3. 超出配额的分区标记为等待释放, 由消费线程处理完当前批次后释放
+            for (Map.Entry<String, Boolean> entry : owned.entrySet()) {
+                if (active <= quota) {
+                    break;
+                }
+                if (!entry.getValue()) {
+                    entry.setValue(true);
+                    active--;
+                }
+            }
+
+            //4. 不足配额时从随机位置开始获取空闲的分区
+            int start = ThreadLocalRandom.current().nextInt(Math.max(1, partitions.size()));
+            for (int i = 0; i < partitions.size() && active < quota; i++) {
+                String partition = partitions.get((start + i) % partitions.size());
+                if (owned.containsKey(partition)) {
+                    continue;
+                }
+                Boolean acquired = stringRedisTemplate.opsForValue()
+                        .setIfAbsent(ORDER_PARTITION_LEASE_KEY + partition, owner, ttl, TimeUnit.MILLISECONDS);
+                if (Boolean.TRUE.equals(acquired)) {
+                    deadlines.put(partition, now + ttl);
+                    owned.put(partition, false);
+                    active++;
+                    log.info("获取订单分区{}", partition);
+                }
+            }
+        } catch (Exception e) {
+            log.error("订单分区租约维护失败", e);
+        }
+    }
+}
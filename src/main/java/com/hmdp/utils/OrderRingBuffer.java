@@ -0,0 +1,133 @@
+package com.hmdp.utils;
+
+import com.hmdp.entity.VoucherOrder;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 本地下单模式的环形缓冲区, 多生产者单消费者, 无锁
+ *
+ * 槽位在创建时一次性分配, 订单的三个字段直接写入对应的long数组, 入队不产生对象。
+ * 生产者用CAS分配序号, 写完槽位后发布该序号; 消费者按序号顺序取出已发布的槽位,
+ * 处理完成后释放, 生产者在缓冲区满时自旋等待消费者释放。
+ */
+public class OrderRingBuffer {
+
+    private final int capacity;
+
+    private final int mask;
+
+    private final long[] orderIds;
+    private final long[] userIds;
+    private final long[] voucherIds;
+
+    /**
+     * 每个槽位上已经发布的序号, 等于当前读取的序号时说明该槽位已写好
+     */
+    private final AtomicLongArray published;
+
+    /**
+     * 下一个分配给生产者的序号
+     */
+    private final AtomicLong next;
+
+    /**
+     * 消费者已处理完成的序号(不含), 生产者不能超过 consumed + capacity
+     */
+    private volatile long consumed;
+
+    /**
+     * @param capacity 容量, 向上取整为2的幂
+     * @param initialSequence 起始序号, 重启后从预写日志的末尾继续
+     */
+    public OrderRingBuffer(int capacity, long initialSequence) {
+        this.capacity = capacity <= 1 ? 1 : Integer.highestOneBit(capacity - 1) << 1;
+        this.mask = this.capacity - 1;
+        this.orderIds = new long[this.capacity];
+        this.userIds = new long[this.capacity];
+        this.voucherIds = new long[this.capacity];
+        this.published = new AtomicLongArray(this.capacity);
+        for (int i = 0; i < this.capacity; i++) {
+            published.set(i, -1);
+        }
+        this.next = new AtomicLong(initialSequence);
+        this.consumed = initialSequence;
+    }
+
+    /**
+     * 分配一个序号, 缓冲区满时等待消费者释放槽位
+     */
+    public long claim() {
+        while (true) {
+            long seq = next.get();
+            if (seq - consumed >= capacity) {
+                LockSupport.parkNanos(1000);
+                continue;
+            }
+            if (next.compareAndSet(seq, seq + 1)) {
+                return seq;
+            }
+        }
+    }
+
+    /**
+     * 写入槽位并发布, 每个claim得到的序号都必须发布, 否则消费者会停在该序号上
+     */
+    public void publish(long seq, long orderId, long userId, long voucherId) {
+        int index = (int) seq & mask;
+        orderIds[index] = orderId;
+        userIds[index] = userId;
+        voucherIds[index] = voucherId;
+        published.lazySet(index, seq);
+    }
+
+    /**
+     * 从序号from开始取出连续已发布的订单, 最多max条
+     * @return 取出的条数, 下次从 from + 返回值 开始读取
+     */
+    public int drain(long from, int max, List<VoucherOrder> out) {
+        int n = 0;
+        while (n < max) {
+            long seq = from + n;
+            int index = (int) seq & mask;
+            if (published.get(index) != seq) {
+                break;
+            }
+            VoucherOrder voucherOrder = new VoucherOrder();
+            voucherOrder.setId(orderIds[index]);
+            voucherOrder.setUserId(userIds[index]);
+            voucherOrder.setVoucherId(voucherIds[index]);
+            out.add(voucherOrder);
+            n++;
+        }
+        return n;
+    }
+
+    /**
+     * 消费者处理完成, 释放序号upTo(不含)之前的槽位
+     */
+    public void release(long upTo) {
+        consumed = upTo;
+    }
+
+    /**
+     * 已分配但尚未处理完成的订单数
+     */
+    public long size() {
+        return next.get() - consumed;
+    }
+
+    /**
+     * 下一个分配的序号
+     */
+    public long nextSequence() {
+        return next.get();
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+}
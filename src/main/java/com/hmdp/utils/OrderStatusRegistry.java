@@ -0,0 +1,195 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.text.CharSequenceUtil;
+import com.hmdp.dto.OrderStatusDTO;
+import com.hmdp.dto.Result;
+import com.hmdp.entity.VoucherOrder;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+import org.springframework.web.context.request.async.DeferredResult;
+
+import javax.annotation.PostConstruct;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static com.hmdp.utils.RedisConstants.*;
+
+/**
+ * 秒杀订单的处理结果表
+ *
+ * 每个订单一个带TTL的hash order:status:{orderId}, 字段为 state/reason/userId。
+ * 秒杀成功后写入PENDING, 订单消费者写入CREATED或FAILED, 并在 order:status 频道广播处理完的订单id,
+ * 用于唤醒各节点上等待该订单的长轮询请求。查询只读redis, 不会访问数据库。
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class OrderStatusRegistry implements MessageListener {
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    private final RedisMessageListenerContainer listenerContainer;
+
+    /**
+     * orderId -> 本节点上等待该订单结果的长轮询请求
+     */
+    private final Map<Long, List<DeferredResult<Result>>> waiters = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    private void init() {
+        listenerContainer.addMessageListener(this, new ChannelTopic(ORDER_STATUS_CHANNEL));
+    }
+
+    /**
+     * 秒杀成功后把订单状态置为PENDING, 消费者可能已经先写入了结果, 因此只在没有state时写入
+     */
+    public void markPending(Long orderId, Long userId) {
+        String key = ORDER_STATUS_KEY + orderId;
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            conn.hSetNX(key, "state", OrderStatusDTO.PENDING);
+            conn.hSet(key, "userId", userId.toString());
+            conn.expire(key, TimeUnit.MINUTES.toSeconds(ORDER_STATUS_TTL));
+            return null;
+        });
+    }
+
+    /**
+     * 用pipeline写入一批订单的处理结果, 并广播这批订单id
+     * @param voucherOrders 同一批处理的订单
+     * @param failures 失败的订单id -> 原因, 不在其中的订单视为创建成功
+     */
+    public void saveResults(List<VoucherOrder> voucherOrders, Map<Long, String> failures) {
+        if (voucherOrders.isEmpty()) {
+            return;
+        }
+        long ttl = TimeUnit.MINUTES.toSeconds(ORDER_STATUS_TTL);
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            for (VoucherOrder voucherOrder : voucherOrders) {
+                String key = ORDER_STATUS_KEY + voucherOrder.getId();
+                String reason = failures.get(voucherOrder.getId());
+                Map<String, String> status = new HashMap<>(4);
+                status.put("state", reason == null ? OrderStatusDTO.CREATED : OrderStatusDTO.FAILED);
+                status.put("userId", String.valueOf(voucherOrder.getUserId()));
+                if (reason != null) {
+                    status.put("reason", reason);
+                }
+                conn.hMSet(key, status);
+                conn.expire(key, ttl);
+            }
+            return null;
+        });
+        String ids = voucherOrders.stream().map(o -> String.valueOf(o.getId())).collect(Collectors.joining(","));
+        stringRedisTemplate.convertAndSend(ORDER_STATUS_CHANNEL, ids);
+    }
+
+    /**
+     * 标记单个订单失败, 例如转入死信队列的订单
+     */
+    public void markFailed(Long orderId, String reason) {
+        String key = ORDER_STATUS_KEY + orderId;
+        Map<String, String> status = new HashMap<>(4);
+        status.put("state", OrderStatusDTO.FAILED);
+        status.put("reason", reason);
+        stringRedisTemplate.opsForHash().putAll(key, status);
+        stringRedisTemplate.expire(key, ORDER_STATUS_TTL, TimeUnit.MINUTES);
+        stringRedisTemplate.convertAndSend(ORDER_STATUS_CHANNEL, orderId.toString());
+    }
+
+    /**
+     * 查询订单状态
+     * @param userId 当前用户, 订单不属于该用户时视为不存在; 为null时不校验
+     * @return 订单不存在或已过期时返回null
+     */
+    public OrderStatusDTO get(Long orderId, Long userId) {
+        Map<Object, Object> entries = stringRedisTemplate.opsForHash().entries(ORDER_STATUS_KEY + orderId);
+        if (entries.isEmpty()) {
+            return null;
+        }
+        Object owner = entries.get("userId");
+        if (userId != null && owner != null && !userId.toString().equals(owner)) {
+            return null;
+        }
+        OrderStatusDTO status = new OrderStatusDTO();
+        status.setOrderId(orderId);
+        status.setState((String) entries.get("state"));
+        status.setReason((String) entries.get("reason"));
+        return status;
+    }
+
+    /**
+     * 长轮询: 订单已有结果时立即返回, 否则等到结果写入或超时, 超时返回PENDING
+     */
+    public DeferredResult<Result> await(Long orderId, Long userId, long timeoutMillis) {
+        DeferredResult<Result> result = new DeferredResult<>(timeoutMillis);
+        OrderStatusDTO status = get(orderId, userId);
+        if (status == null) {
+            result.setResult(Result.fail("订单不存在或已过期"));
+            return result;
+        }
+        if (!OrderStatusDTO.PENDING.equals(status.getState())) {
+            result.setResult(Result.ok(status));
+            return result;
+        }
+
+        List<DeferredResult<Result>> list = waiters.computeIfAbsent(orderId, k -> new CopyOnWriteArrayList<>());
+        list.add(result);
+        result.onTimeout(() -> result.setResult(Result.ok(status)));
+        result.onCompletion(() -> removeWaiter(orderId, result));
+
+        // 注册之后再查一次, 避免两次查询之间结果已经写入而错过通知
+        OrderStatusDTO again = get(orderId, userId);
+        if (again != null && !OrderStatusDTO.PENDING.equals(again.getState())) {
+            result.setResult(Result.ok(again));
+        }
+        return result;
+    }
+
+    private void removeWaiter(Long orderId, DeferredResult<Result> result) {
+        waiters.computeIfPresent(orderId, (k, list) -> {
+            list.remove(result);
+            return list.isEmpty() ? null : list;
+        });
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        if (waiters.isEmpty()) {
+            return;
+        }
+        String body = new String(message.getBody(), StandardCharsets.UTF_8);
+        for (String id : CharSequenceUtil.split(body, ',')) {
+            Long orderId;
+            try {
+                orderId = Long.valueOf(id.trim());
+            } catch (NumberFormatException e) {
+                log.warn("无法识别的订单状态消息: {}", body);
+                return;
+            }
+            List<DeferredResult<Result>> list = waiters.get(orderId);
+            if (list == null || list.isEmpty()) {
+                continue;
+            }
+            OrderStatusDTO status = get(orderId, null);
+            if (status == null || OrderStatusDTO.PENDING.equals(status.getState())) {
+                continue;
+            }
+            for (DeferredResult<Result> result : list) {
+                result.setResult(Result.ok(status));
+            }
+        }
+    }
+}
@@ -0,0 +1,232 @@
+package com.hmdp.utils;
+
+import cn.hutool.json.JSONUtil;
+import com.hmdp.config.SeckillProperties;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.redisson.api.RLock;
+import org.redisson.api.RedissonClient;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.connection.RedisZSetCommands;
+import org.springframework.data.redis.connection.stream.MapRecord;
+import org.springframework.data.redis.connection.stream.PendingMessagesSummary;
+import org.springframework.data.redis.connection.stream.RecordId;
+import org.springframework.data.redis.connection.stream.StreamInfo;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+import static com.hmdp.utils.RedisConstants.SECKILL_ORDER_DLQ_KEY;
+
+/**
+ * 订单stream的保留策略
+ *
+ * 定期计算每个分区可以安全删除的边界: 所有消费者组中最小的pending消息id,
+ * 没有pending时取最后投递id的下一个。边界之前的消息都已ACK, 用 XTRIM MINID 裁掉,
+ * 开启归档时先把这些消息追加写入本地gzip文件。死信队列stream.orders.dlq没有消费者组, 按消息存活时间裁剪。
+ * 多节点之间用分布式锁保证同一时间只有一个节点裁剪。本地下单模式不使用stream, 不启动。
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class OrderStreamRetention {
+
+    private static final String LOCK_KEY = "lock:stream:retention";
+
+    private static final int ARCHIVE_PAGE_SIZE = 1000;
+
+    private static final DateTimeFormatter ARCHIVE_DATE = DateTimeFormatter.ofPattern("yyyyMMdd");
+
+    private static final DefaultRedisScript<Long> XTRIM_SCRIPT;
+
+    static {
+        XTRIM_SCRIPT = new DefaultRedisScript<>();
+        XTRIM_SCRIPT.setLocation(new ClassPathResource("xtrim.lua"));
+        XTRIM_SCRIPT.setResultType(Long.class);
+    }
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    private final RedissonClient redissonClient;
+
+    private final SeckillProperties seckillProperties;
+
+    private ScheduledExecutorService scheduler;
+
+    @PostConstruct
+    private void init() {
+        SeckillProperties.Retention config = seckillProperties.getRetention();
+        if (!config.isEnabled() || seckillProperties.getOrder().getMode() == SeckillProperties.Order.Mode.LOCAL) {
+            return;
+        }
+        long interval = config.getInterval().toMillis();
+        scheduler = Executors.newSingleThreadScheduledExecutor();
+        scheduler.scheduleWithFixedDelay(this::trimAll, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    private void destroy() {
+        if (scheduler != null) {
+            scheduler.shutdown();
+        }
+    }
+
+    /**
+     * 裁剪所有分区
+     */
+    public void trimAll() {
+        RLock lock = redissonClient.getLock(LOCK_KEY);
+        if (!lock.tryLock()) {
+            return;
+        }
+        try {
+            for (String streamKey : seckillProperties.getOrder().streamKeys()) {
+                try {
+                    trim(streamKey);
+                } catch (Exception e) {
+                    log.error("裁剪订单stream {} 异常", streamKey, e);
+                }
+            }
+            try {
+                trimDeadLetter();
+            } catch (Exception e) {
+                log.error("裁剪死信队列 {} 异常", SECKILL_ORDER_DLQ_KEY, e);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void trim(String streamKey) throws IOException {
+        //1. 计算安全边界, 没有消费者组时不裁剪
+        RecordId minId = safeMinId(streamKey);
+        if (minId == null) {
+            return;
+        }
+
+        //2. 归档边界之前的消息
+        if (seckillProperties.getRetention().isArchive()) {
+            archive(streamKey, minId);
+        }
+
+        //3. XTRIM key MINID minId, 删除id小于minId的消息
+        Long trimmed = stringRedisTemplate.execute(XTRIM_SCRIPT, Collections.singletonList(streamKey), minId.getValue());
+        if (trimmed != null && trimmed > 0) {
+            log.info("裁剪{}中已ACK的订单消息{}条", streamKey, trimmed);
+        }
+    }
+
+    /**
+     * 删除死信队列中存活超过dlqMaxAge的消息, 开启归档时先归档
+     */
+    private void trimDeadLetter() throws IOException {
+        long maxAge = seckillProperties.getRetention().getDlqMaxAge().toMillis();
+        if (maxAge <= 0) {
+            return;
+        }
+        RecordId minId = RecordId.of(System.currentTimeMillis() - maxAge, 0);
+        if (seckillProperties.getRetention().isArchive()) {
+            archive(SECKILL_ORDER_DLQ_KEY, minId);
+        }
+        Long trimmed = stringRedisTemplate.execute(XTRIM_SCRIPT, Collections.singletonList(SECKILL_ORDER_DLQ_KEY), minId.getValue());
+        if (trimmed != null && trimmed > 0) {
+            log.info("裁剪{}中超过保留时间的死信消息{}条", SECKILL_ORDER_DLQ_KEY, trimmed);
+        }
+    }
+
+    /**
+     * 所有消费者组中仍需保留的最小消息id
+     */
+    private RecordId safeMinId(String streamKey) {
+        RecordId minId = null;
+        StreamInfo.XInfoGroups groups = stringRedisTemplate.opsForStream().groups(streamKey);
+        for (int i = 0; i < groups.size(); i++) {
+            StreamInfo.XInfoGroup group = groups.get(i);
+            RecordId bound;
+            PendingMessagesSummary summary = stringRedisTemplate.opsForStream().pending(streamKey, group.groupName());
+            if (summary != null && summary.getTotalPendingMessages() > 0) {
+                bound = summary.minRecordId();
+            } else {
+                RecordId last = RecordId.of(group.lastDeliveredId());
+                bound = RecordId.of(last.getTimestamp(), last.getSequence() + 1);
+            }
+            if (minId == null || compare(bound, minId) < 0) {
+                minId = bound;
+            }
+        }
+        return minId;
+    }
+
+    /**
+     * 归档文件名, stream key中文件名不允许的字符(例如分区key stream.orders:3 中的冒号, Windows上不合法)替换为下划线
+     */
+    static String archiveFileName(String streamKey, LocalDate date) {
+        return streamKey.replaceAll("[^\\w.-]", "_") + "-" + date.format(ARCHIVE_DATE) + ".jsonl.gz";
+    }
+
+    /**
+     * 把id小于minId的消息按页追加到 stream key-yyyyMMdd.jsonl.gz(见archiveFileName), 每次追加是一个独立的gzip member, 可以直接zcat
+     */
+    private void archive(String streamKey, RecordId minId) throws IOException {
+        File dir = new File(seckillProperties.getRetention().getArchiveDir());
+        if (!dir.exists() && !dir.mkdirs()) {
+            throw new IOException("无法创建归档目录: " + dir.getAbsolutePath());
+        }
+        File file = new File(dir, archiveFileName(streamKey, LocalDate.now()));
+
+        String start = "0-0";
+        int archived = 0;
+        try (Writer writer = new BufferedWriter(new OutputStreamWriter(
+                new GZIPOutputStream(new FileOutputStream(file, true)), StandardCharsets.UTF_8))) {
+            while (true) {
+                List<MapRecord<String, Object, Object>> page = stringRedisTemplate.opsForStream().range(streamKey,
+                        Range.rightUnbounded(Range.Bound.inclusive(start)),
+                        RedisZSetCommands.Limit.limit().count(ARCHIVE_PAGE_SIZE));
+                if (page == null || page.isEmpty()) {
+                    break;
+                }
+                for (MapRecord<String, Object, Object> record : page) {
+                    if (compare(record.getId(), minId) >= 0) {
+                        return;
+                    }
+                    Map<String, Object> line = new LinkedHashMap<>();
+                    line.put("id", record.getId().getValue());
+                    line.put("value", record.getValue());
+                    writer.write(JSONUtil.toJsonStr(line));
+                    writer.write('\n');
+                    archived++;
+                }
+                if (page.size() < ARCHIVE_PAGE_SIZE) {
+                    break;
+                }
+                RecordId last = page.get(page.size() - 1).getId();
+                start = last.getTimestamp() + "-" + (last.getSequence() + 1);
+            }
+        } finally {
+            if (archived > 0) {
+                log.info("归档{}中的订单消息{}条到{}", streamKey, archived, file.getName());
+            }
+        }
+    }
+
+    private static int compare(RecordId a, RecordId b) {
+        int c = Long.compare(a.getTimestamp(), b.getTimestamp());
+        return c != 0 ? c : Long.compare(a.getSequence(), b.getSequence());
+    }
+}
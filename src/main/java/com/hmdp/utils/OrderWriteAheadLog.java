@@ -0,0 +1,161 @@
+package com.hmdp.utils;
+
+import com.hmdp.entity.VoucherOrder;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 本地下单模式的预写日志(WAL)
+ *
+ * 日志切分为固定大小的段文件 wal-{段号}.log, 通过内存映射写入, 每条记录定长32字节:
+ * orderId, userId, voucherId, 校验值。记录的位置由环形缓冲区分配的序号直接算出,
+ * 多个线程追加时互不影响, 不需要加锁。消费者写库成功后把序号写入checkpoint文件,
+ * checkpoint之前的段文件随即删除; 重启时从checkpoint开始重放尚未写库的订单。
+ *
+ * 内存映射的写入在进程崩溃后仍会由操作系统落盘, 但不保证机器掉电时不丢失。
+ */
+@Slf4j
+public class OrderWriteAheadLog implements Closeable {
+
+    private static final int RECORD_SIZE = 32;
+
+    private static final long MAGIC = 0x5345434B494C4CL;
+
+    private final File dir;
+
+    private final long segmentBytes;
+
+    private final long recordsPerSegment;
+
+    /**
+     * 段号 -> 映射的段文件
+     */
+    private final Map<Long, MappedByteBuffer> segments = new ConcurrentHashMap<>();
+
+    private final MappedByteBuffer checkpointBuffer;
+
+    /**
+     * @param dir 日志目录
+     * @param segmentBytes 段文件大小, 向下取整为记录大小的整数倍
+     */
+    public OrderWriteAheadLog(File dir, long segmentBytes) throws IOException {
+        if (!dir.exists() && !dir.mkdirs()) {
+            throw new IOException("无法创建预写日志目录: " + dir.getAbsolutePath());
+        }
+        this.dir = dir;
+        this.recordsPerSegment = Math.max(1, segmentBytes / RECORD_SIZE);
+        this.segmentBytes = recordsPerSegment * RECORD_SIZE;
+        this.checkpointBuffer = map(new File(dir, "checkpoint"), Long.BYTES);
+    }
+
+    /**
+     * 写入一条订单记录, 校验值最后写入, 重放时校验不通过的记录视为没有写完
+     */
+    public void append(long sequence, long orderId, long userId, long voucherId) {
+        MappedByteBuffer segment = segment(sequence / recordsPerSegment);
+        int offset = (int) (sequence % recordsPerSegment) * RECORD_SIZE;
+        segment.putLong(offset, orderId);
+        segment.putLong(offset + 8, userId);
+        segment.putLong(offset + 16, voucherId);
+        segment.putLong(offset + 24, checksum(orderId, userId, voucherId));
+    }
+
+    /**
+     * 已经写库的序号(不含), 重放从这里开始
+     */
+    public long checkpoint() {
+        return checkpointBuffer.getLong(0);
+    }
+
+    /**
+     * 推进checkpoint, 并删除已经全部写库的段文件
+     */
+    public void checkpoint(long sequence) {
+        checkpointBuffer.putLong(0, sequence);
+        long current = sequence / recordsPerSegment;
+        for (Long index : segments.keySet()) {
+            if (index < current) {
+                segments.remove(index);
+                File file = segmentFile(index);
+                if (file.exists() && !file.delete()) {
+                    log.warn("删除预写日志段文件失败: {}", file.getAbsolutePath());
+                }
+            }
+        }
+    }
+
+    /**
+     * 从序号from开始读取所有完整的记录
+     * @param handler 接收重放的订单
+     * @return 最后一条完整记录的下一个序号, 没有记录时返回from
+     */
+    public long replay(long from, java.util.function.Consumer<VoucherOrder> handler) {
+        long end = from;
+        for (long index = from / recordsPerSegment; segmentFile(index).exists(); index++) {
+            MappedByteBuffer segment = segment(index);
+            long first = Math.max(from, index * recordsPerSegment);
+            long last = (index + 1) * recordsPerSegment;
+            for (long seq = first; seq < last; seq++) {
+                int offset = (int) (seq % recordsPerSegment) * RECORD_SIZE;
+                long orderId = segment.getLong(offset);
+                long userId = segment.getLong(offset + 8);
+                long voucherId = segment.getLong(offset + 16);
+                if (orderId == 0 || segment.getLong(offset + 24) != checksum(orderId, userId, voucherId)) {
+                    // 没写完的记录, 跳过
+                    continue;
+                }
+                VoucherOrder voucherOrder = new VoucherOrder();
+                voucherOrder.setId(orderId);
+                voucherOrder.setUserId(userId);
+                voucherOrder.setVoucherId(voucherId);
+                handler.accept(voucherOrder);
+                end = seq + 1;
+            }
+        }
+        return end;
+    }
+
+    /**
+     * 把已写入的内容刷到磁盘
+     */
+    @Override
+    public void close() {
+        segments.values().forEach(MappedByteBuffer::force);
+        checkpointBuffer.force();
+    }
+
+    private MappedByteBuffer segment(long index) {
+        return segments.computeIfAbsent(index, i -> {
+            try {
+                return map(segmentFile(i), segmentBytes);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    private File segmentFile(long index) {
+        return new File(dir, String.format("wal-%020d.log", index));
+    }
+
+    private static MappedByteBuffer map(File file, long size) throws IOException {
+        // 映射建立后即使关闭channel也一直有效
+        try (FileChannel channel = FileChannel.open(file.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+    }
+
+    private static long checksum(long orderId, long userId, long voucherId) {
+        return orderId ^ Long.rotateLeft(userId, 21) ^ Long.rotateLeft(voucherId, 42) ^ MAGIC;
+    }
+}
@@ -0,0 +1,174 @@
+package com.hmdp.utils;
+
+import com.hmdp.config.SeckillProperties;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.connection.RedisStreamCommands;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.connection.stream.*;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.*;
+
+import static com.hmdp.utils.RedisConstants.SECKILL_ORDER_DLQ_KEY;
+
+/**
+ * 订单stream的pending消息恢复
+ *
+ * 用XPENDING按页扫描pending-list, 拿到每条消息的空闲时间和投递次数:
+ * 投递次数达到上限的消息转存到死信stream并ACK, 其余空闲足够久的消息用XCLAIM认领后按批重新下单。
+ * XCLAIM带min-idle, 多个节点同时恢复时同一条消息只会被一个消费者认领。
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class PendingOrderRecovery {
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    private final SeckillProperties seckillProperties;
+
+    private final OrderStatusRegistry orderStatusRegistry;
+
+    /**
+     * 恢复一个stream的pending消息
+     * @param streamKey 订单stream
+     * @param consumer 认领消息的消费者
+     * @param ownOnly true:只处理该消费者自己的pending消息; false:处理整个消费者组的
+     * @param minIdle 只处理空闲时间不少于该值的消息
+     * @param handler 下单并ACK, 抛出异常表示处理失败, 消息留在pending-list等待下次恢复
+     * @return 重新处理成功的消息数
+     */
+    public int recover(String streamKey, Consumer consumer, boolean ownOnly, Duration minIdle,
+                       java.util.function.Consumer<List<MapRecord<String, Object, Object>>> handler) {
+        SeckillProperties.Order config = seckillProperties.getOrder();
+        int batchSize = Math.max(1, config.getBatchSize());
+        int recovered = 0;
+        String start = "0-0";
+        while (true) {
+            //1. XPENDING key group start + count [consumer]
+            Range<String> range = Range.rightUnbounded(Range.Bound.inclusive(start));
+            PendingMessages page = ownOnly
+                    ? stringRedisTemplate.opsForStream().pending(streamKey, consumer, range, batchSize)
+                    : stringRedisTemplate.opsForStream().pending(streamKey, consumer.getGroup(), range, batchSize);
+            if (page == null || page.isEmpty()) {
+                break;
+            }
+
+            //2. 按投递次数分成重试和死信两类
+            List<RecordId> retry = new ArrayList<>();
+            List<RecordId> dead = new ArrayList<>();
+            for (PendingMessage message : page) {
+                if (message.getElapsedTimeSinceLastDelivery().compareTo(minIdle) < 0) {
+                    continue;
+                }
+                if (message.getTotalDeliveryCount() >= config.getMaxDeliveries()) {
+                    dead.add(message.getId());
+                } else {
+                    retry.add(message.getId());
+                }
+            }
+
+            //3. 死信转存
+            if (!dead.isEmpty()) {
+                moveToDeadLetter(streamKey, consumer, minIdle, dead);
+            }
+
+            //4. 认领后按批重新下单
+            if (!retry.isEmpty()) {
+                List<MapRecord<String, Object, Object>> claimed = claim(streamKey, consumer, minIdle, retry);
+                recovered += process(claimed, handler);
+            }
+
+            if (page.size() < batchSize) {
+                break;
+            }
+            RecordId last = page.get(page.size() - 1).getId();
+            start = last.getTimestamp() + "-" + (last.getSequence() + 1);
+        }
+        if (recovered > 0) {
+            log.info("消费者{}从{}恢复了{}条pending订单", consumer.getName(), streamKey, recovered);
+        }
+        return recovered;
+    }
+
+    /**
+     * 整批处理失败时逐条重试, 避免一条有问题的消息拖住整批
+     */
+    private int process(List<MapRecord<String, Object, Object>> records,
+                        java.util.function.Consumer<List<MapRecord<String, Object, Object>>> handler) {
+        if (records.isEmpty()) {
+            return 0;
+        }
+        try {
+            handler.accept(records);
+            return records.size();
+        } catch (Exception e) {
+            log.error("恢复pending订单批量处理失败, 改为逐条处理", e);
+        }
+        int processed = 0;
+        for (MapRecord<String, Object, Object> record : records) {
+            try {
+                handler.accept(Collections.singletonList(record));
+                processed++;
+            } catch (Exception e) {
+                log.error("恢复pending订单失败, id: {}", record.getId(), e);
+            }
+        }
+        return processed;
+    }
+
+    /**
+     * XCLAIM key group consumer min-idle id...
+     */
+    private List<MapRecord<String, Object, Object>> claim(String streamKey, Consumer consumer, Duration minIdle, List<RecordId> ids) {
+        List<StringRecord> records = stringRedisTemplate.execute((RedisCallback<List<StringRecord>>) connection ->
+                ((StringRedisConnection) connection).xClaim(streamKey, consumer.getGroup(), consumer.getName(),
+                        RedisStreamCommands.XClaimOptions.minIdle(minIdle).ids(ids)));
+        if (records == null) {
+            return Collections.emptyList();
+        }
+        List<MapRecord<String, Object, Object>> claimed = new ArrayList<>(records.size());
+        for (StringRecord record : records) {
+            claimed.add(StreamRecords.newRecord().in(streamKey).withId(record.getId())
+                    .ofMap(new HashMap<Object, Object>(record.getValue())));
+        }
+        return claimed;
+    }
+
+    /**
+     * 认领超过投递上限的消息, 连同来源信息写入死信stream后ACK
+     */
+    private void moveToDeadLetter(String streamKey, Consumer consumer, Duration minIdle, List<RecordId> ids) {
+        List<MapRecord<String, Object, Object>> claimed = claim(streamKey, consumer, minIdle, ids);
+        for (MapRecord<String, Object, Object> record : claimed) {
+            Map<String, String> value = new HashMap<>();
+            record.getValue().forEach((k, v) -> value.put(String.valueOf(k), String.valueOf(v)));
+            value.put("sourceStream", streamKey);
+            value.put("sourceId", record.getId().getValue());
+            value.put("deadTime", String.valueOf(System.currentTimeMillis()));
+            stringRedisTemplate.opsForStream().add(SECKILL_ORDER_DLQ_KEY, value);
+            if (value.containsKey("id")) {
+                orderStatusRegistry.markFailed(Long.valueOf(value.get("id")), "订单处理失败");
+            }
+            log.error("订单消息超过最大投递次数{}, 转入死信队列: {}", seckillProperties.getOrder().getMaxDeliveries(), value);
+        }
+        // 只ACK自己认领到的, 没认领到的说明已被其他消费者接手
+        if (!claimed.isEmpty()) {
+            RecordId[] claimedIds = claimed.stream().map(MapRecord::getId).toArray(RecordId[]::new);
+            stringRedisTemplate.opsForStream().acknowledge(streamKey, consumer.getGroup(), claimedIds);
+        }
+    }
+
+    /**
+     * 死信stream中的消息数
+     */
+    public long deadLetterSize() {
+        Long size = stringRedisTemplate.opsForStream().size(SECKILL_ORDER_DLQ_KEY);
+        return size == null ? 0 : size;
+    }
+}
@@ -11,11 +11,26 @@ public class RedisConstants {
     public static final Long CACHE_SHOP_TTL = 30L;
     public static final String CACHE_SHOP_KEY = "cache:shop:";
 
+    public static final String CACHE_INVALIDATE_CHANNEL = "cache:invalidate";
+    public static final String BLOOM_KEY = "bloom:";
+    public static final String BLOOM_ADD_CHANNEL = "bloom:add";
+
     public static final String CACHE_SHOP_TYPE_KEY = "cache:shop:type";
     public static final String LOCK_SHOP_KEY = "lock:shop:";
     public static final Long LOCK_SHOP_TTL = 10L;
 
     public static final String SECKILL_STOCK_KEY = "seckill:stock:";
+    public static final String SECKILL_VOUCHER_KEY = "seckill:voucher:";
+    public static final String SECKILL_ORDER_KEY = "seckill:order:";
+    public static final String SECKILL_ORDER_STREAM_KEY = "stream.orders";
+    public static final String SECKILL_ORDER_DLQ_KEY = "stream.orders.dlq";
+    public static final String SECKILL_SOLD_OUT_CHANNEL = "seckill:soldout";
+    public static final String ORDER_STATUS_KEY = "order:status:";
+    public static final Long ORDER_STATUS_TTL = 30L;
+    public static final String ORDER_STATUS_CHANNEL = "order:status";
+    public static final String ID_WORKER_KEY = "id:worker:";
+    public static final String ORDER_PARTITION_LEASE_KEY = "order:partition:lease:";
+    public static final String ORDER_CONSUMER_INSTANCES_KEY = "order:consumer:instances";
     public static final String BLOG_LIKED_KEY = "blog:liked:";
     public static final String FEED_KEY = "feed:";
     public static final String SHOP_GEO_KEY = "shop:geo:";
@@ -8,4 +8,8 @@ import java.time.LocalDateTime;
 public class RedisData<T> {
     private LocalDateTime expireTime;
     private T data;
+    /**
+     * 上次重建时查询数据库的耗时(毫秒), 用于提前刷新
+     */
+    private Long rebuildMillis;
 }
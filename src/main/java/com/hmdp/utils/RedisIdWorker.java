@@ -1,13 +1,33 @@
 package com.hmdp.utils;
 
 
+import cn.hutool.core.lang.UUID;
+import cn.hutool.core.util.BooleanUtil;
+import cn.hutool.core.util.RandomUtil;
+import com.hmdp.config.IdWorkerProperties;
 import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.io.ClassPathResource;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
 import org.springframework.stereotype.Component;
 
-import java.time.LocalDateTime;
-import java.time.ZoneOffset;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
 import java.time.format.DateTimeFormatter;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import static com.hmdp.utils.RedisConstants.ID_WORKER_KEY;
 
 
 /**
@@ -16,7 +36,15 @@ import java.time.format.DateTimeFormatter;
  * 时间戳：31bit，以秒为单位，可以使用69年
  *
  * 序列号：32bit，秒内的计数器，支持每秒产生2^32个不同ID
+ *
+ * 序列号来自redis中按天自增的计数器 icr:{业务前缀}:{yyyy:MM:dd}。segment模式下每次用INCRBY预留一段序列号,
+ * 在本地用原子计数器分配, 用到一定比例时异步预取下一段; 跨天时丢弃旧号段, 从新一天的计数器重新预留,
+ * 保证同一秒内不会出现相同的序列号。
+ *
+ * snowflake模式下32位序列号再拆成 workerId + 秒内序列号: 启动时用SET NX从 id:worker:{n} 租用一个workerId
+ * 并定期续约, 之后生成ID不再访问redis。时间戳部分不变, 与其他模式生成的ID按时间有序。
  */
+@Slf4j
 @Component
 @RequiredArgsConstructor
 public class RedisIdWorker {
@@ -30,22 +58,318 @@ public class RedisIdWorker {
      */
     private static final int COUNT_BITS = 32;
 
+    private static final DateTimeFormatter DATE_FORMATTER = DateTimeFormatter.ofPattern("yyyy:MM:dd");
+
+    private static final DefaultRedisScript<Long> RENEW_SCRIPT;
+
+    static {
+        RENEW_SCRIPT = new DefaultRedisScript<>();
+        RENEW_SCRIPT.setLocation(new ClassPathResource("renew.lua"));
+        RENEW_SCRIPT.setResultType(Long.class);
+    }
+
     private final StringRedisTemplate stringRedisTemplate;
 
+    private final IdWorkerProperties idWorkerProperties;
+
+    /**
+     * 当前日期, 每天只重新计算一次
+     */
+    private volatile Day day;
+
+    /**
+     * 业务前缀 -> 号段
+     */
+    private final Map<String, Segment> segments = new ConcurrentHashMap<>();
+
+    /**
+     * 异步预取号段、workerId续约的线程
+     */
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "id-worker");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * snowflake模式下租用的workerId和租约持有者标示
+     */
+    private volatile long workerId = -1;
+    private final String leaseOwner = UUID.randomUUID().toString(true);
+
+    /**
+     * 租约在本地视角下的到期时间, 超过后拒绝生成ID, 防止租约被其他节点接管后生成重复ID
+     */
+    private volatile long leaseDeadline;
+
+    /**
+     * snowflake模式的状态: 上次使用的时间戳 << 序列号位数 | 序列号
+     */
+    private final AtomicLong snowflakeState = new AtomicLong();
+
+    /**
+     * snowflake模式下固定使用启动时的时区偏移, 避免夏令时切换被当成时钟回拨
+     */
+    private long snowflakeOffset;
+
+    @PostConstruct
+    private void init() {
+        if (idWorkerProperties.getMode() != IdWorkerProperties.Mode.SNOWFLAKE) {
+            return;
+        }
+        snowflakeOffset = ZonedDateTime.now().getOffset().getTotalSeconds();
+        leaseWorkerId();
+        long interval = idWorkerProperties.getLeaseTtl().toMillis() / 3;
+        executor.scheduleWithFixedDelay(this::renewLease, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    private void destroy() {
+        executor.shutdown();
+        long id = workerId;
+        if (id >= 0) {
+            // 不直接删除租约, 保留到超过时钟回拨容忍时间, 防止重启后同一workerId在同一秒内生成重复ID
+            long keep = Math.max(1000, idWorkerProperties.getMaxBackward().toMillis() + 1000);
+            stringRedisTemplate.execute(RENEW_SCRIPT, Collections.singletonList(ID_WORKER_KEY + id),
+                    leaseOwner, String.valueOf(keep));
+        }
+    }
+
     public long nextId(String keyPrefix){
+        if (idWorkerProperties.getMode() == IdWorkerProperties.Mode.SNOWFLAKE) {
+            return nextSnowflakeId();
+        }
+
         //1. 生成时间戳
-        LocalDateTime now = LocalDateTime.now();
-        long nowSecond = now.toEpochSecond(ZoneOffset.UTC);
-        long timestamp = nowSecond - BEGIN_TIMESTAMP;
+        long nowSecond = System.currentTimeMillis() / 1000;
+        Day today = currentDay(nowSecond);
+        long timestamp = nowSecond + today.offset - BEGIN_TIMESTAMP;
 
         //2.生成序列号
-        //2.1 获取当前时间, 精确到天
-        String date = now.format(DateTimeFormatter.ofPattern("yyyy:MM:dd"));
-        //2.2 自增长
-        Long count =
-                stringRedisTemplate.opsForValue().increment("icr:" + keyPrefix + ":" + date);
+        long count;
+        if (idWorkerProperties.getMode() == IdWorkerProperties.Mode.SEGMENT) {
+            //2.1 从本地号段分配
+            Segment segment = segments.get(keyPrefix);
+            if (segment == null) {
+                segment = segments.computeIfAbsent(keyPrefix, Segment::new);
+            }
+            count = segment.next(today);
+        } else {
+            //2.2 自增长
+            Long increment = stringRedisTemplate.opsForValue().increment(key(keyPrefix, today));
+            count = increment == null ? 0 : increment;
+        }
 
         //3. 拼接并返回
         return timestamp << COUNT_BITS | count ;
     }
+
+    /**
+     * snowflake模式: 时间戳 << 32 | workerId << 序列号位数 | 秒内序列号, 不访问redis
+     */
+    private long nextSnowflakeId() {
+        if (System.currentTimeMillis() >= leaseDeadline) {
+            throw new IllegalStateException("workerId租约已过期, 暂时无法生成ID");
+        }
+        int sequenceBits = COUNT_BITS - idWorkerProperties.getWorkerBits();
+        long sequenceMask = (1L << sequenceBits) - 1;
+        long maxBackward = idWorkerProperties.getMaxBackward().getSeconds();
+        while (true) {
+            long timestamp = System.currentTimeMillis() / 1000 + snowflakeOffset - BEGIN_TIMESTAMP;
+            long state = snowflakeState.get();
+            long last = state >>> sequenceBits;
+            long next;
+            if (timestamp > last) {
+                next = timestamp << sequenceBits;
+            } else {
+                // 同一秒内, 或者时钟回拨后沿用上次的时间戳
+                if (last - timestamp > maxBackward) {
+                    throw new IllegalStateException("时钟回拨" + (last - timestamp) + "秒, 拒绝生成ID");
+                }
+                if ((state & sequenceMask) == sequenceMask) {
+                    // 这一秒的序列号用完了, 等到下一秒
+                    LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(100));
+                    continue;
+                }
+                next = state + 1;
+            }
+            if (snowflakeState.compareAndSet(state, next)) {
+                return (next >>> sequenceBits) << COUNT_BITS | workerId << sequenceBits | (next & sequenceMask);
+            }
+        }
+    }
+
+    /**
+     * 从随机位置开始依次尝试 SET id:worker:{n} owner NX PX leaseTtl, 拿到第一个空闲的workerId
+     */
+    private void leaseWorkerId() {
+        int workers = 1 << idWorkerProperties.getWorkerBits();
+        long ttl = idWorkerProperties.getLeaseTtl().toMillis();
+        int start = RandomUtil.randomInt(workers);
+        for (int i = 0; i < workers; i++) {
+            int id = (start + i) % workers;
+            long now = System.currentTimeMillis();
+            Boolean success = stringRedisTemplate.opsForValue()
+                    .setIfAbsent(ID_WORKER_KEY + id, leaseOwner, ttl, TimeUnit.MILLISECONDS);
+            if (BooleanUtil.isTrue(success)) {
+                workerId = id;
+                leaseDeadline = now + ttl;
+                log.info("租用workerId: {}", id);
+                return;
+            }
+        }
+        throw new IllegalStateException("没有空闲的workerId, 共" + workers + "个");
+    }
+
+    /**
+     * 续约, 租约已经丢失(例如长时间停顿后被其他节点接管)时重新租用一个workerId
+     */
+    private void renewLease() {
+        try {
+            long ttl = idWorkerProperties.getLeaseTtl().toMillis();
+            long now = System.currentTimeMillis();
+            Long renewed = stringRedisTemplate.execute(RENEW_SCRIPT,
+                    Collections.singletonList(ID_WORKER_KEY + workerId), leaseOwner, String.valueOf(ttl));
+            if (renewed != null && renewed == 1) {
+                leaseDeadline = now + ttl;
+                return;
+            }
+            log.warn("workerId {} 的租约已丢失, 重新租用", workerId);
+            leaseWorkerId();
+        } catch (Exception e) {
+            log.error("workerId续约失败", e);
+        }
+    }
+
+    /**
+     * 当前所在的一天, 跨天时重新计算
+     */
+    private Day currentDay(long nowSecond) {
+        Day d = day;
+        if (d != null && nowSecond >= d.start && nowSecond < d.end) {
+            return d;
+        }
+        ZonedDateTime now = ZonedDateTime.now();
+        ZoneId zone = now.getZone();
+        LocalDate date = now.toLocalDate();
+        d = new Day(date.format(DATE_FORMATTER),
+                date.atStartOfDay(zone).toEpochSecond(),
+                date.plusDays(1).atStartOfDay(zone).toEpochSecond(),
+                now.getOffset().getTotalSeconds());
+        day = d;
+        return d;
+    }
+
+    private static String key(String keyPrefix, Day day) {
+        return "icr:" + keyPrefix + ":" + day.date;
+    }
+
+    /**
+     * 一天: 日期字符串, [start, end) 的epoch秒, 以及当天的时区偏移秒数
+     */
+    private static class Day {
+        final String date;
+        final long start;
+        final long end;
+        final long offset;
+
+        Day(String date, long start, long end, long offset) {
+            this.date = date;
+            this.start = start;
+            this.end = end;
+            this.offset = offset;
+        }
+    }
+
+    /**
+     * 一段预留的序列号 (max - size, max]
+     */
+    private static class Block {
+        final Day day;
+        final AtomicLong next;
+        final long max;
+        /**
+         * 分配到这个序列号时触发预取
+         */
+        final long refillAt;
+
+        Block(Day day, long max, int size, double refillRatio) {
+            this.day = day;
+            this.next = new AtomicLong(max - size + 1);
+            this.max = max;
+            this.refillAt = max - (long) (size * refillRatio);
+        }
+    }
+
+    /**
+     * 一个业务前缀的号段: 当前号段和预取好的下一个号段
+     */
+    private class Segment {
+        private final String keyPrefix;
+
+        private volatile Block current;
+
+        private volatile Block prefetched;
+
+        Segment(String keyPrefix) {
+            this.keyPrefix = keyPrefix;
+        }
+
+        long next(Day today) {
+            Block block = current;
+            while (true) {
+                if (block != null && block.day.start == today.start) {
+                    long count = block.next.getAndIncrement();
+                    if (count <= block.max) {
+                        if (count == block.refillAt) {
+                            executor.execute(() -> prefetch(today));
+                        }
+                        return count;
+                    }
+                }
+                // 号段用完或者跨天, 切换到下一个号段
+                block = switchBlock(block, today);
+            }
+        }
+
+        private synchronized Block switchBlock(Block exhausted, Day today) {
+            if (current != exhausted) {
+                // 其他线程已经切换过了
+                return current;
+            }
+            Block next = prefetched;
+            prefetched = null;
+            if (next == null || next.day.start != today.start) {
+                next = reserve(today);
+            }
+            current = next;
+            return next;
+        }
+
+        private void prefetch(Day today) {
+            try {
+                Block block = reserve(today);
+                synchronized (this) {
+                    if (prefetched == null || prefetched.day.start != today.start) {
+                        prefetched = block;
+                    }
+                }
+            } catch (Exception e) {
+                // 预取失败不影响分配, 号段用完时会同步预留
+                log.error("预取ID号段失败, 业务前缀: {}", keyPrefix, e);
+            }
+        }
+
+        /**
+         * INCRBY icr:{业务前缀}:{日期} segmentSize
+         */
+        private Block reserve(Day today) {
+            int size = Math.max(1, idWorkerProperties.getSegmentSize());
+            Long max = stringRedisTemplate.opsForValue().increment(key(keyPrefix, today), size);
+            if (max == null) {
+                throw new IllegalStateException("预留ID号段失败, 业务前缀: " + keyPrefix);
+            }
+            return new Block(today, max, size, idWorkerProperties.getRefillRatio());
+        }
+    }
 }
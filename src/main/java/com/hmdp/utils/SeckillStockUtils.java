@@ -0,0 +1,115 @@
+package com.hmdp.utils;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.hmdp.utils.RedisConstants.SECKILL_ORDER_KEY;
+import static com.hmdp.utils.RedisConstants.SECKILL_ORDER_STREAM_KEY;
+import static com.hmdp.utils.RedisConstants.SECKILL_STOCK_KEY;
+import static com.hmdp.utils.RedisConstants.SECKILL_VOUCHER_KEY;
+
+/**
+ * 秒杀相关key的工具类, key的规则必须与seckill.lua保持一致
+ *
+ * seckill.lua每次只处理一个库存分段, 该分段的时间窗口、库存、下单用户set都带上它要写入的stream分区作为hash tag,
+ * 与stream在redis集群中位于同一个slot, 例如第1段: seckill:stock:{stream.orders:3}:42:1。
+ * 第s段写入分区 (voucherId + s) % partitions, 分区数不少于分段数时同一张券的各段落在不同的slot上。
+ *
+ * 不分段且只有一个分区时沿用原来的key名(seckill:stock:42、seckill:order:42、seckill:voucher:42), 不带hash tag,
+ * 升级前写入的库存和下单记录继续有效; 这种模式的key不保证与stream在同一个slot, 部署到redis集群时需要分段或分区。
+ */
+public class SeckillStockUtils {
+
+    /**
+     * 分区对应的stream key
+     */
+    public static String streamKey(int partition, int partitions) {
+        return partitions <= 1 ? SECKILL_ORDER_STREAM_KEY : SECKILL_ORDER_STREAM_KEY + ":" + partition;
+    }
+
+    /**
+     * 券的第segment段订单写入的stream分区, 不分段时为 voucherId % partitions
+     */
+    public static int partitionOf(long voucherId, int segment, int partitions) {
+        return partitions <= 1 ? 0 : (int) ((voucherId + segment) % partitions);
+    }
+
+    /**
+     * 库存所在的key, 分段时为 seckill:stock:{tag}:{id}:{segment}
+     */
+    public static String stockKey(Long voucherId, int segment, int segments, int partitions) {
+        return SECKILL_STOCK_KEY + suffix(voucherId, segment, segments, partitions);
+    }
+
+    /**
+     * 在该分段下单的用户set
+     */
+    public static String orderKey(Long voucherId, int segment, int segments, int partitions) {
+        return SECKILL_ORDER_KEY + suffix(voucherId, segment, segments, partitions);
+    }
+
+    /**
+     * 该分段所在slot中的时间窗口副本, 分段写入同一个分区时共用一个副本
+     */
+    public static String windowKey(Long voucherId, int segment, int segments, int partitions) {
+        return legacy(segments, partitions) ? SECKILL_VOUCHER_KEY + voucherId
+                : SECKILL_VOUCHER_KEY + tag(voucherId, segment, partitions) + ":" + voucherId;
+    }
+
+    /**
+     * 在第segment段执行seckill.lua时传入的KEYS
+     * @param withStream 是否写入stream, 本地下单模式为false
+     */
+    public static List<String> scriptKeys(Long voucherId, int segment, int segments, int partitions, boolean withStream) {
+        List<String> keys = new ArrayList<>(4);
+        keys.add(windowKey(voucherId, segment, segments, partitions));
+        keys.add(stockKey(voucherId, segment, segments, partitions));
+        keys.add(orderKey(voucherId, segment, segments, partitions));
+        if (withStream) {
+            keys.add(streamKey(partitionOf(voucherId, segment, partitions), partitions));
+        }
+        return keys;
+    }
+
+    /**
+     * 把库存平均拆到各个分段, 余数分给前面的分段
+     * @param voucherId 券id
+     * @param stock 总库存
+     * @param segments 分段数, 小于等于1时不拆分
+     * @param partitions 订单stream分区数
+     * @return key -> 库存, 可以直接逐个写入redis; 集群中各key不在同一个slot, 不能用一次MSET
+     */
+    public static Map<String, String> splitStock(Long voucherId, int stock, int segments, int partitions) {
+        int n = Math.max(1, segments);
+        Map<String, String> stocks = new LinkedHashMap<>(n * 2);
+        for (int i = 0; i < n; i++) {
+            int part = stock / n + (i < stock % n ? 1 : 0);
+            stocks.put(stockKey(voucherId, i, n, partitions), String.valueOf(part));
+        }
+        return stocks;
+    }
+
+    /**
+     * 分段的hash tag, 即它写入的stream key
+     */
+    private static String tag(Long voucherId, int segment, int partitions) {
+        return "{" + streamKey(partitionOf(voucherId, segment, partitions), partitions) + "}";
+    }
+
+    /**
+     * 是否使用不带hash tag的原有key名
+     */
+    private static boolean legacy(int segments, int partitions) {
+        return segments <= 1 && partitions <= 1;
+    }
+
+    private static String suffix(Long voucherId, int segment, int segments, int partitions) {
+        if (legacy(segments, partitions)) {
+            return String.valueOf(voucherId);
+        }
+        String key = tag(voucherId, segment, partitions) + ":" + voucherId;
+        return segments <= 1 ? key : key + ":" + segment;
+    }
+}
@@ -0,0 +1,122 @@
+package com.hmdp.utils;
+
+import com.hmdp.config.SeckillProperties;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+import static com.hmdp.utils.RedisConstants.SECKILL_SOLD_OUT_CHANNEL;
+
+/**
+ * 本地的秒杀券售罄登记表
+ *
+ * 秒杀脚本返回库存不足后在本地标记, 并通过Redis发布订阅通知其他节点;
+ * 之后对该券的请求直接在JVM内拒绝, 不再生成订单id, 也不再执行lua脚本。
+ * 标记在soldOutTtl后失效, 即使错过了清除通知, 也只会误拒一个有效期; 库存写入redis时清除标记并同样广播。
+ * 清除通知同时表示券的库存和时间窗口已重新写入redis, 其他本地缓存可以通过onClear随之失效。
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class SoldOutRegistry implements MessageListener {
+
+    /**
+     * 消息格式: +voucherId 表示售罄, -voucherId 表示清除
+     */
+    private static final char SOLD_OUT = '+';
+    private static final char CLEAR = '-';
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    private final RedisMessageListenerContainer listenerContainer;
+
+    private final SeckillProperties seckillProperties;
+
+    /**
+     * voucherId -> 标记售罄的时间
+     */
+    private final Map<Long, Long> soldOut = new ConcurrentHashMap<>();
+
+    /**
+     * 收到清除通知(包括本节点自己发出的)时回调, 参数为voucherId
+     */
+    private final List<Consumer<Long>> clearListeners = new CopyOnWriteArrayList<>();
+
+    @PostConstruct
+    private void init() {
+        listenerContainer.addMessageListener(this, new ChannelTopic(SECKILL_SOLD_OUT_CHANNEL));
+    }
+
+    /**
+     * 券是否已在本地标记为售罄且标记未过期
+     */
+    public boolean isSoldOut(Long voucherId) {
+        Long markedAt = soldOut.get(voucherId);
+        if (markedAt == null) {
+            return false;
+        }
+        if (System.currentTimeMillis() - markedAt < seckillProperties.getSoldOutTtl().toMillis()) {
+            return true;
+        }
+        soldOut.remove(voucherId, markedAt);
+        return false;
+    }
+
+    /**
+     * 标记售罄并通知其他节点, 本地已有未过期标记的不重复广播
+     */
+    public void markSoldOut(Long voucherId) {
+        long now = System.currentTimeMillis();
+        Long previous = soldOut.put(voucherId, now);
+        if (previous == null || now - previous >= seckillProperties.getSoldOutTtl().toMillis()) {
+            stringRedisTemplate.convertAndSend(SECKILL_SOLD_OUT_CHANNEL, SOLD_OUT + voucherId.toString());
+        }
+    }
+
+    /**
+     * 清除售罄标记并通知其他节点, 用于写入或补充库存
+     */
+    public void clear(Long voucherId) {
+        soldOut.remove(voucherId);
+        stringRedisTemplate.convertAndSend(SECKILL_SOLD_OUT_CHANNEL, CLEAR + voucherId.toString());
+    }
+
+    /**
+     * 注册清除通知的回调, 用于让依赖redis中券数据的本地缓存在任一节点重新写入库存后失效
+     */
+    public void onClear(Consumer<Long> listener) {
+        clearListeners.add(listener);
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        String body = new String(message.getBody(), StandardCharsets.UTF_8);
+        if (body.length() < 2) {
+            return;
+        }
+        try {
+            Long voucherId = Long.valueOf(body.substring(1));
+            if (body.charAt(0) == SOLD_OUT) {
+                soldOut.put(voucherId, System.currentTimeMillis());
+            } else if (body.charAt(0) == CLEAR) {
+                soldOut.remove(voucherId);
+                clearListeners.forEach(listener -> listener.accept(voucherId));
+            }
+        } catch (NumberFormatException e) {
+            log.warn("无法识别的售罄消息: {}", body);
+        }
+    }
+}
@@ -0,0 +1,6 @@
+-- 续约: KEYS[1] 租约key, ARGV[1] 持有者标示, ARGV[2] 新的过期时间(毫秒)
+-- 只有仍由自己持有时才续约, 返回1; 已过期或被其他节点持有返回0
+if (redis.call('GET', KEYS[1]) == ARGV[1]) then
+    return redis.call('PEXPIRE', KEYS[1], ARGV[2])
+end
+return 0
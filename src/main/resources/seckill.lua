@@ -1,32 +1,63 @@
--- 1. 参数列表
--- 1.1 优惠券id
+-- 在一个库存分段上秒杀, 脚本访问的key全部通过KEYS传入, 且带有相同的hash tag(该分段写入的stream分区),
+-- 在redis集群中位于同一个slot; 分段之间的故障转移由调用方逐段调用本脚本完成
+
+-- 1. key列表
+-- 1.1 秒杀时间窗口, hash: begin/end 毫秒时间戳
+local voucherKey = KEYS[1]
+-- 1.2 本分段的库存
+local stockKey = KEYS[2]
+-- 1.3 在本分段下单的用户set, 一人一单
+local orderKey = KEYS[3]
+-- 1.4 订单stream分区, 不传时不写入stream(本地下单模式)
+local streamKey = KEYS[4]
+
+-- 2. 参数列表
+-- 2.1 优惠券id
 local voucherId = ARGV[1]
--- 1.2 用户id
+-- 2.2 用户id
 local userId = ARGV[2]
--- 1.3 订单Id
+-- 2.3 订单Id
 local orderId = ARGV[3]
 
--- 2. 数据key
--- 2.1 库存key
-local stockKey = 'seckill:stock:' .. voucherId
--- 2.2 订单key
-local orderKey = 'seckill:order:' .. voucherId
-
 -- 3. 脚本业务
--- 3.1 判断库存是否充足 get stockKey
-if(tonumber(redis.call('get' , stockKey))<=0) then
-    -- 3.2 库存不足,返回1
-    return 1
+-- 3.0 判断是否在秒杀时间内, 没有写入时间窗口的券不做限制
+local window = redis.call('hmget', voucherKey, 'begin', 'end')
+if (window[1] and window[2]) then
+    local time = redis.call('time')
+    local now = tonumber(time[1]) * 1000 + math.floor(tonumber(time[2]) / 1000)
+    if (now < tonumber(window[1])) then
+        -- 秒杀尚未开始,返回3
+        return 3
+    end
+    if (now > tonumber(window[2])) then
+        -- 秒杀已经结束,返回4
+        return 4
+    end
 end
 
+-- 3.1 判断用户是否已经在本分段下过单, 先于库存判断: 调用方按固定顺序尝试各分段,
+--     用户下单的分段之前的分段都已卖完, 再次请求时一定会走到下单的分段并在这里被拒绝
 if(redis.call('sismember' ,orderKey,userId) == 1 )then
     return 2
 end
+
+-- 3.2 判断库存是否充足 get stockKey; 库存key不存在说明尚未预热或redis数据丢失, 返回5, 不能当作售罄
+local stock = redis.call('get' , stockKey)
+if (not stock) then
+    return 5
+end
+if(tonumber(stock)<=0) then
+    -- 3.3 本分段库存不足,返回1, 由调用方尝试下一个分段
+    return 1
+end
+
 -- 3.4 扣库存 incrby stockKey -1
 redis.call('incrby', stockKey , -1)
 -- 3.5 下单 (保存用户) sadd orderKey userId
 redis.call('sadd' , orderKey , userId)
 -- 3.6 发送消息到队列中, XADD stream.order * k1 v1, k2 v2 ...
-redis.call('xadd', 'stream.orders', '*', 'userId',userId, 'voucherId', voucherId, 'id', orderId)
+if (streamKey) then
+    redis.call('xadd', streamKey, '*', 'userId',userId, 'voucherId', voucherId, 'id', orderId)
+end
 
 return 0
@@ -0,0 +1,4 @@
+-- 裁剪stream中id小于minId的消息(要求redis 6.2+), 返回删除的条数
+-- KEYS[1] stream key
+-- ARGV[1] minId
+return redis.call('xtrim', KEYS[1], 'MINID', ARGV[1])
@@ -0,0 +1,118 @@
+package com.hmdp;
+
+import com.hmdp.utils.SeckillStockUtils;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 单key库存与分段库存的秒杀脚本吞吐量对比, 需要本地redis, 默认不执行:
+ * mvn test -Dtest=SeckillStockBenchmarkTests -Dbench.redis.host=127.0.0.1 [-Dbench.redis.port=6379]
+ */
+@EnabledIfSystemProperty(named = "bench.redis.host", matches = ".+")
+class SeckillStockBenchmarkTests {
+
+    private static final long VOUCHER_ID = 999_999_001L;
+    private static final int STOCK = 100_000;
+    private static final int THREADS = 32;
+    private static final int SEGMENTS = 8;
+    /**
+     * 借用分区参数把压测订单写到单独的stream里, 不污染真正的stream.orders
+     */
+    private static final int PARTITIONS = 1_000_003;
+
+    private static LettuceConnectionFactory connectionFactory;
+    private static StringRedisTemplate stringRedisTemplate;
+    private static DefaultRedisScript<Long> seckillScript;
+
+    @BeforeAll
+    static void setUp() {
+        RedisStandaloneConfiguration config = new RedisStandaloneConfiguration(
+                System.getProperty("bench.redis.host"), Integer.getInteger("bench.redis.port", 6379));
+        String password = System.getProperty("bench.redis.password");
+        if (password != null) {
+            config.setPassword(password);
+        }
+        connectionFactory = new LettuceConnectionFactory(config);
+        connectionFactory.afterPropertiesSet();
+        stringRedisTemplate = new StringRedisTemplate(connectionFactory);
+
+        seckillScript = new DefaultRedisScript<>();
+        seckillScript.setLocation(new ClassPathResource("seckill.lua"));
+        seckillScript.setResultType(Long.class);
+    }
+
+    @AfterAll
+    static void tearDown() {
+        cleanUp();
+        connectionFactory.destroy();
+    }
+
+    @Test
+    void compareSingleKeyAndSegmented() throws InterruptedException {
+        double single = run(1);
+        double segmented = run(SEGMENTS);
+        System.out.printf("单key库存: %.0f 次/秒, %d段库存: %.0f 次/秒%n", single, SEGMENTS, segmented);
+    }
+
+    /**
+     * 用THREADS个线程把库存抢光, 返回每秒完成的秒杀请求数
+     */
+    private double run(int segments) throws InterruptedException {
+        cleanUp();
+        SeckillStockUtils.splitStock(VOUCHER_ID, STOCK, segments, PARTITIONS)
+                .forEach((key, stock) -> stringRedisTemplate.opsForValue().set(key, stock));
+
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        CountDownLatch latch = new CountDownLatch(THREADS);
+        AtomicLong userId = new AtomicLong();
+        AtomicLong calls = new AtomicLong();
+        long begin = System.nanoTime();
+        for (int i = 0; i < THREADS; i++) {
+            executor.submit(() -> {
+                try {
+                    while (true) {
+                        long uid = userId.incrementAndGet();
+                        // 与VoucherOrderServiceImpl相同, 从用户所在的分段开始逐段尝试
+                        long r = 1;
+                        for (int s = 0; s < segments && r == 1; s++) {
+                            int segment = (int) ((uid + s) % segments);
+                            r = stringRedisTemplate.execute(seckillScript,
+                                    SeckillStockUtils.scriptKeys(VOUCHER_ID, segment, segments, PARTITIONS, true),
+                                    String.valueOf(VOUCHER_ID), String.valueOf(uid), String.valueOf(uid));
+                        }
+                        calls.incrementAndGet();
+                        if (r == 1) {
+                            break;
+                        }
+                    }
+                } finally {
+                    latch.countDown();
+                }
+            });
+        }
+        latch.await();
+        long elapsed = System.nanoTime() - begin;
+        executor.shutdown();
+        return calls.get() * (double) TimeUnit.SECONDS.toNanos(1) / elapsed;
+    }
+
+    private static void cleanUp() {
+        stringRedisTemplate.delete(stringRedisTemplate.keys("seckill:*:" + VOUCHER_ID + "*"));
+        for (int s = 0; s < SEGMENTS; s++) {
+            stringRedisTemplate.delete(SeckillStockUtils.streamKey(SeckillStockUtils.partitionOf(VOUCHER_ID, s, PARTITIONS), PARTITIONS));
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package com.hmdp.utils;
+
+import com.hmdp.config.AdminProperties;
+import com.hmdp.dto.Result;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.core.HashOperations;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+import static org.springframework.test.web.servlet.setup.MockMvcBuilders.standaloneSetup;
+
+/**
+ * 管理接口只允许配置的用户访问, 其他登录用户返回403
+ */
+class AdminInterceptorTests {
+
+    private MockMvc mockMvc;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        StringRedisTemplate stringRedisTemplate = mock(StringRedisTemplate.class);
+        HashOperations<String, Object, Object> hashOperations = mock(HashOperations.class);
+        when(stringRedisTemplate.opsForHash()).thenReturn(hashOperations);
+        when(hashOperations.entries(anyString())).thenAnswer(invocation -> {
+            String key = invocation.getArgument(0);
+            Map<Object, Object> user = new HashMap<>();
+            if (key.startsWith(RedisConstants.LOGIN_USER_KEY + "token-")) {
+                user.put("id", key.substring((RedisConstants.LOGIN_USER_KEY + "token-").length()));
+            }
+            return user;
+        });
+
+        AdminProperties adminProperties = new AdminProperties();
+        adminProperties.setUserIds(Collections.singleton(1L));
+        mockMvc = standaloneSetup(new TestController())
+                .addInterceptors(new RefreshTokenInterceptor(stringRedisTemplate), new LoginInterceptor())
+                .addMappedInterceptors(new String[]{"/admin/**", "/voucher-order/admin/**"}, new AdminInterceptor(adminProperties))
+                .build();
+    }
+
+    @Test
+    void adminUserPasses() throws Exception {
+        mockMvc.perform(get("/admin/cache/bloom").header("authorization", "token-1")).andExpect(status().isOk());
+        mockMvc.perform(get("/voucher-order/admin/pending").header("authorization", "token-1")).andExpect(status().isOk());
+    }
+
+    @Test
+    void otherUsersAreForbidden() throws Exception {
+        mockMvc.perform(get("/admin/cache/bloom").header("authorization", "token-2")).andExpect(status().isForbidden());
+        mockMvc.perform(get("/voucher-order/admin/pending").header("authorization", "token-2")).andExpect(status().isForbidden());
+        mockMvc.perform(get("/admin/cache/bloom")).andExpect(status().isUnauthorized());
+    }
+
+    @Test
+    void normalEndpointsAreNotAffected() throws Exception {
+        mockMvc.perform(get("/voucher-order/1/status").header("authorization", "token-2")).andExpect(status().isOk());
+    }
+
+    @RestController
+    static class TestController {
+
+        @GetMapping("/admin/cache/bloom")
+        public Result bloom() {
+            return Result.ok();
+        }
+
+        @GetMapping("/voucher-order/admin/pending")
+        public Result pending() {
+            return Result.ok();
+        }
+
+        @GetMapping("/voucher-order/1/status")
+        public Result status() {
+            return Result.ok();
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package com.hmdp.utils;
+
+import com.hmdp.config.BloomFilterProperties;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.connection.DefaultMessage;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static com.hmdp.utils.RedisConstants.BLOOM_ADD_CHANNEL;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * 开启redis同步时, 查询只看本地过滤器, 新增的id通过发布订阅到达其他节点
+ */
+class BloomFilterRegistryTests {
+
+    private StringRedisTemplate stringRedisTemplate;
+
+    private BloomFilterRegistry registry;
+
+    @BeforeEach
+    void setUp() {
+        BloomFilterProperties properties = new BloomFilterProperties();
+        properties.setEnabled(true);
+        properties.setRedis(true);
+        BloomFilterProperties.Spec spec = new BloomFilterProperties.Spec();
+        spec.setName("shop");
+        spec.setTable("tb_shop");
+        spec.setPrefix("cache:shop:");
+        spec.setExpectedInsertions(1000);
+        properties.setFilters(Collections.singletonList(spec));
+
+        JdbcTemplate jdbcTemplate = mock(JdbcTemplate.class);
+        when(jdbcTemplate.queryForList(anyString(), eq(Long.class), anyLong())).thenReturn(Arrays.asList(1L, 2L, 3L));
+        stringRedisTemplate = mock(StringRedisTemplate.class);
+        registry = new BloomFilterRegistry(properties, jdbcTemplate, stringRedisTemplate, mock(RedisMessageListenerContainer.class));
+        registry.build();
+    }
+
+    @AfterEach
+    void tearDown() {
+        ReflectionTestUtils.invokeMethod(registry, "destroy");
+    }
+
+    @Test
+    void rejectsLocallyWithoutRedis() {
+        assertTrue(registry.mightContain("cache:shop:", 1L));
+        assertFalse(registry.mightContain("cache:shop:", 10_001L));
+        verify(stringRedisTemplate, never()).executePipelined(any(RedisCallback.class));
+    }
+
+    @Test
+    void addPublishesAndOtherNodesAccept() {
+        registry.add("tb_shop", 10_002L);
+        verify(stringRedisTemplate).convertAndSend(BLOOM_ADD_CHANNEL, "tb_shop:10002");
+
+        assertFalse(registry.mightContain("cache:shop:", 10_003L));
+        registry.onMessage(new DefaultMessage(BLOOM_ADD_CHANNEL.getBytes(StandardCharsets.UTF_8),
+                "tb_shop:10003".getBytes(StandardCharsets.UTF_8)), null);
+        assertTrue(registry.mightContain("cache:shop:", 10_003L));
+    }
+}
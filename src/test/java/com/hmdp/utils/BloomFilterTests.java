@@ -0,0 +1,77 @@
+package com.hmdp.utils;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BloomFilterTests {
+
+    @Test
+    void sizedFromExpectedInsertionsAndFpp() {
+        BloomFilter filter = BloomFilter.create(1_000_000, 0.01);
+        // m = -n·ln(p) / (ln2)² ≈ 9585059, 取8的倍数; k = m/n·ln2 ≈ 7
+        assertEquals(9_585_064, filter.getBitSize());
+        assertEquals(0, filter.getBitSize() % 8);
+        assertEquals(7, filter.getHashes());
+    }
+
+    @Test
+    void noFalseNegativesAndFppNearTarget() {
+        int n = 100_000;
+        BloomFilter filter = BloomFilter.create(n, 0.01);
+        for (long id = 1; id <= n; id++) {
+            filter.put(id);
+        }
+        for (long id = 1; id <= n; id++) {
+            assertTrue(filter.mightContain(id));
+        }
+        int falsePositives = 0;
+        for (long id = n + 1; id <= 2L * n; id++) {
+            if (filter.mightContain(id)) {
+                falsePositives++;
+            }
+        }
+        double fpp = (double) falsePositives / n;
+        assertTrue(fpp < 0.02, "误判率 " + fpp);
+        assertTrue(filter.estimatedFpp() < 0.02, "估算误判率 " + filter.estimatedFpp());
+    }
+
+    @Test
+    void toBytesUsesSetbitOrder() {
+        BloomFilter filter = BloomFilter.create(1000, 0.01);
+        filter.put(42);
+        byte[] bytes = filter.toBytes();
+        assertEquals(filter.getBitSize() / 8, bytes.length);
+
+        // 与SETBIT一致: 第i位是第 i/8 个字节的从高到低第 i%8 位
+        int[] set = {0};
+        filter.forEachBit(42, index -> {
+            assertTrue((bytes[(int) (index >>> 3)] & (0x80 >>> (index & 7))) != 0, "第" + index + "位");
+            set[0]++;
+        });
+        long bits = 0;
+        for (byte b : bytes) {
+            bits += Integer.bitCount(b & 0xFF);
+        }
+        assertEquals(filter.bitCount(), bits);
+        assertTrue(set[0] > 0);
+    }
+
+    @Test
+    void mergeRoundTrip() {
+        BloomFilter source = BloomFilter.create(10_000, 0.01);
+        for (long id = 1; id <= 5_000; id++) {
+            source.put(id * 31);
+        }
+
+        BloomFilter target = BloomFilter.create(10_000, 0.01);
+        target.merge(source.toBytes());
+        for (long id = 1; id <= 5_000; id++) {
+            assertTrue(target.mightContain(id * 31));
+        }
+        assertEquals(source.bitCount(), target.bitCount());
+        assertArrayEquals(source.toBytes(), target.toBytes());
+    }
+}
@@ -0,0 +1,97 @@
+package com.hmdp.utils;
+
+import com.hmdp.config.CacheClientProperties;
+import com.hmdp.entity.Shop;
+import org.junit.jupiter.api.Test;
+import org.springframework.util.unit.DataSize;
+
+import java.time.LocalDateTime;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class CacheCodecRegistryTests {
+
+    @Test
+    void writesHeaderWithCodecId() {
+        for (String name : new String[]{"json", "smile"}) {
+            CacheCodecRegistry registry = registry(name, 0);
+            byte[] bytes = registry.encode(shop());
+            assertEquals((byte) 0xFE, bytes[0]);
+            assertEquals(1, bytes[1]);
+            assertEquals("json".equals(name) ? 1 : 2, bytes[2]);
+            assertEquals(0, bytes[3]);
+            assertEquals(shop(), registry.decode(bytes, Shop.class));
+        }
+    }
+
+    @Test
+    void compressesFromThreshold() {
+        // 先得到不压缩时的正文长度, 阈值等于该长度时压缩, 大于时不压缩
+        int length = registry("json", 0).encode(shop()).length - 4;
+
+        byte[] compressed = registry("json", length).encode(shop());
+        assertEquals(1, compressed[3]);
+        byte[] plain = registry("json", length + 1).encode(shop());
+        assertEquals(0, plain[3]);
+
+        // 读取只看头部, 与读取方的压缩阈值无关
+        CacheCodecRegistry reader = registry("smile", 0);
+        assertEquals(shop(), reader.decode(compressed, Shop.class));
+        assertEquals(shop(), reader.decode(plain, Shop.class));
+    }
+
+    @Test
+    void readsLegacyValuesWithoutHeader() {
+        byte[] legacy = registry("hutool", 1).encode(shop());
+        assertNotEquals((byte) 0xFE, legacy[0]);
+        assertEquals('{', legacy[0]);
+
+        CacheCodecRegistry reader = registry("smile", 1);
+        assertEquals(shop(), reader.decode(legacy, Shop.class));
+    }
+
+    @Test
+    void logicalExpireRoundTrip() {
+        RedisData<Shop> redisData = new RedisData<>();
+        redisData.setExpireTime(LocalDateTime.of(2024, 1, 1, 12, 0));
+        redisData.setData(shop());
+        redisData.setRebuildMillis(15L);
+
+        CacheCodecRegistry registry = registry("smile", 1);
+        RedisData<Shop> decoded = registry.decodeLogical(registry.encode(redisData), Shop.class);
+        assertEquals(redisData, decoded);
+    }
+
+    @Test
+    void rejectsUnknownCodecId() {
+        byte[] bytes = registry("json", 0).encode(shop());
+        bytes[2] = 99;
+        assertThrows(IllegalStateException.class, () -> registry("json", 0).decode(bytes, Shop.class));
+    }
+
+    private static CacheCodecRegistry registry(String write, long compressThreshold) {
+        CacheClientProperties properties = new CacheClientProperties();
+        properties.getCodec().setWrite(write);
+        properties.getCodec().setCompressThreshold(DataSize.ofBytes(compressThreshold));
+        return new CacheCodecRegistry(properties);
+    }
+
+    private static Shop shop() {
+        Shop shop = new Shop();
+        shop.setId(1L);
+        shop.setName("103茶餐厅");
+        shop.setTypeId(1L);
+        shop.setArea("大关");
+        shop.setAddress("金华路锦昌文华苑29号");
+        shop.setX(120.149192);
+        shop.setY(30.316078);
+        shop.setAvgPrice(80L);
+        shop.setSold(4215);
+        shop.setComments(3035);
+        shop.setScore(37);
+        shop.setOpenHours("10:00-22:00");
+        return shop;
+    }
+}
@@ -0,0 +1,78 @@
+package com.hmdp.utils;
+
+import com.hmdp.config.CacheClientProperties;
+import com.hmdp.dto.ExpiryDistribution;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * SCAN返回的key按写入顺序编号, 抽样应均匀覆盖整个前缀, 而不是只取前面的key
+ */
+class CacheExpiryInspectorTests {
+
+    private static final int KEYS = 10_000;
+
+    private static final String PREFIX = "cache:shop:";
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void samplesUniformlyOverScan() throws Exception {
+        Iterator<byte[]> scanned = IntStream.range(0, KEYS)
+                .mapToObj(i -> (PREFIX + i).getBytes(StandardCharsets.UTF_8)).iterator();
+        Cursor<byte[]> cursor = mock(Cursor.class);
+        when(cursor.hasNext()).thenAnswer(invocation -> scanned.hasNext());
+        when(cursor.next()).thenAnswer(invocation -> scanned.next());
+
+        List<Integer> read = new ArrayList<>();
+        RedisConnection connection = mock(RedisConnection.class);
+        when(connection.scan(any(ScanOptions.class))).thenReturn(cursor);
+        when(connection.pTtl(any(byte[].class))).thenAnswer(invocation -> {
+            String key = new String((byte[]) invocation.getArgument(0), StandardCharsets.UTF_8);
+            read.add(Integer.parseInt(key.substring(PREFIX.length())));
+            return null;
+        });
+
+        StringRedisTemplate stringRedisTemplate = mock(StringRedisTemplate.class);
+        when(stringRedisTemplate.execute(any(RedisCallback.class)))
+                .thenAnswer(invocation -> ((RedisCallback<?>) invocation.getArgument(0)).doInRedis(connection));
+        when(stringRedisTemplate.executePipelined(any(RedisCallback.class), isNull())).thenAnswer(invocation -> {
+            int from = read.size();
+            ((RedisCallback<?>) invocation.getArgument(0)).doInRedis(connection);
+            List<Object> results = new ArrayList<>();
+            for (int i = from; i < read.size(); i++) {
+                results.add(60_000L);
+                results.add(null);
+            }
+            return results;
+        });
+
+        CacheExpiryInspector inspector = new CacheExpiryInspector(stringRedisTemplate,
+                new CacheCodecRegistry(new CacheClientProperties()));
+        ExpiryDistribution distribution = inspector.inspect(PREFIX, 100, 60);
+
+        assertEquals(KEYS, distribution.getScanned());
+        assertEquals(100, distribution.getSampled());
+        assertEquals(100, distribution.getTtlKeys());
+        assertEquals(100, read.stream().distinct().count());
+        // 均匀抽样时平均编号约为5000, 标准差约290; 只取前100个时约为50
+        double mean = read.stream().mapToInt(Integer::intValue).average().orElse(0);
+        assertTrue(mean > 3500 && mean < 6500, "平均编号 " + mean);
+    }
+}
@@ -0,0 +1,90 @@
+package com.hmdp.utils;
+
+import com.hmdp.config.CacheClientProperties;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 重建任务的提交结果, 第一个任务阻塞在latch上, 保持在执行中的状态
+ */
+class CacheRebuildExecutorTests {
+
+    private CacheRebuildExecutor executor;
+
+    private final CountDownLatch started = new CountDownLatch(1);
+
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    @BeforeEach
+    void setUp() {
+        CacheClientProperties properties = new CacheClientProperties();
+        properties.getRebuild().setThreads(1);
+        properties.getRebuild().setQueueCapacity(1);
+        properties.getRebuild().setOverflow(CacheClientProperties.Overflow.DROP);
+        executor = new CacheRebuildExecutor(properties, new HotKeyDetector(properties), new SimpleMeterRegistry());
+    }
+
+    @AfterEach
+    void tearDown() {
+        release.countDown();
+        ReflectionTestUtils.invokeMethod(executor, "destroy");
+    }
+
+    @Test
+    void collapsedSubmitDoesNotRunTask() throws InterruptedException {
+        assertEquals(CacheRebuildExecutor.SubmitResult.ACCEPTED, executor.submit("cache:shop:1", this::block));
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        AtomicInteger runs = new AtomicInteger();
+        assertEquals(CacheRebuildExecutor.SubmitResult.COLLAPSED, executor.submit("cache:shop:1", runs::incrementAndGet));
+
+        // 第一个任务结束后同一个key可以再次提交
+        CountDownLatch done = new CountDownLatch(1);
+        release.countDown();
+        awaitAccepted("cache:shop:1", done::countDown);
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(0, runs.get());
+    }
+
+    @Test
+    void rejectsWhenQueueIsFull() throws InterruptedException {
+        assertEquals(CacheRebuildExecutor.SubmitResult.ACCEPTED, executor.submit("cache:shop:1", this::block));
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        // 唯一的线程被占用, 队列容量为1
+        assertEquals(CacheRebuildExecutor.SubmitResult.ACCEPTED, executor.submit("cache:shop:2", () -> { }));
+        assertEquals(CacheRebuildExecutor.SubmitResult.REJECTED, executor.submit("cache:shop:3", () -> { }));
+    }
+
+    private void block() {
+        started.countDown();
+        try {
+            release.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * 第一个任务从pending中移除是在task返回之后, 短暂重试直到不再被合并
+     */
+    private void awaitAccepted(String key, Runnable task) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        CacheRebuildExecutor.SubmitResult result;
+        while ((result = executor.submit(key, task)) == CacheRebuildExecutor.SubmitResult.COLLAPSED
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(CacheRebuildExecutor.SubmitResult.ACCEPTED, result);
+    }
+}
@@ -0,0 +1,106 @@
+package com.hmdp.utils;
+
+import com.hmdp.config.CacheClientProperties;
+import com.hmdp.dto.HotKeyStats;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.Duration;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 热点key探测的窗口滚动和topK, 窗口设为1小时, 测试期间不会自动滚动, 由测试手动调用rotate
+ */
+class HotKeyDetectorTests {
+
+    private HotKeyDetector detector;
+
+    @BeforeEach
+    void setUp() {
+        CacheClientProperties properties = new CacheClientProperties();
+        CacheClientProperties.HotKey config = properties.getHotKey();
+        config.setEnabled(true);
+        config.setSampleRate(1);
+        config.setWindow(Duration.ofHours(1));
+        config.setBuckets(3);
+        config.setTopK(2);
+        // 热点阈值: 窗口内约100次, 候选阈值约50次
+        config.setHotQps(100 / 3600.0);
+        detector = new HotKeyDetector(properties);
+        ReflectionTestUtils.invokeMethod(detector, "init");
+    }
+
+    @AfterEach
+    void tearDown() {
+        ReflectionTestUtils.invokeMethod(detector, "destroy");
+    }
+
+    @Test
+    void countMinSketchNeverUnderestimates() {
+        CountMinSketch sketch = new CountMinSketch(4, 64);
+        for (int i = 0; i < 1000; i++) {
+            sketch.increment("key:" + (i % 100));
+        }
+        for (int i = 0; i < 100; i++) {
+            assertTrue(sketch.estimate("key:" + i) >= 10);
+        }
+
+        sketch.clear();
+        assertEquals(0, sketch.estimate("key:0"));
+    }
+
+    @Test
+    void becomesHotAndCoolsDownAfterWindow() {
+        record("cache:shop:1", 120);
+        assertTrue(detector.isHot("cache:shop:1"));
+
+        // 滚动不足一个窗口, 访问仍计在旧桶里
+        rotate();
+        rotate();
+        assertTrue(detector.isHot("cache:shop:1"));
+
+        // 整个窗口滚过后清零, 移出候选
+        rotate();
+        assertFalse(detector.isHot("cache:shop:1"));
+        assertEquals(0, detector.count("cache:shop:1"));
+        assertTrue(detector.hotKeys().isEmpty());
+    }
+
+    @Test
+    void keepsTopKCandidates() {
+        record("a", 80);
+        record("b", 60);
+        record("c", 70);
+
+        // topK=2, c超过b后替换了次数最少的b
+        List<HotKeyStats> hotKeys = detector.hotKeys();
+        assertEquals(2, hotKeys.size());
+        assertEquals("a", hotKeys.get(0).getKey());
+        assertEquals("c", hotKeys.get(1).getKey());
+        assertEquals(0, detector.count("b"));
+        assertFalse(hotKeys.get(0).getHot());
+    }
+
+    @Test
+    void ignoresKeysBelowCandidateThreshold() {
+        record("cold", 40);
+        assertEquals(0, detector.count("cold"));
+        assertTrue(detector.hotKeys().isEmpty());
+    }
+
+    private void record(String key, int times) {
+        for (int i = 0; i < times; i++) {
+            detector.record(key);
+        }
+    }
+
+    private void rotate() {
+        ReflectionTestUtils.invokeMethod(detector, "rotate");
+    }
+}
@@ -0,0 +1,94 @@
+package com.hmdp.utils;
+
+import com.hmdp.dto.Result;
+import com.hmdp.dto.UserDTO;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.core.HashOperations;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.async.DeferredResult;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+import static org.springframework.test.web.servlet.setup.MockMvcBuilders.standaloneSetup;
+
+/**
+ * MockMvc在调用线程上处理请求, 异步请求之后的请求与它使用同一个线程, 可以复现ThreadLocal中残留用户的问题
+ */
+class LoginInterceptorTests {
+
+    private MockMvc mockMvc;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        StringRedisTemplate stringRedisTemplate = mock(StringRedisTemplate.class);
+        HashOperations<String, Object, Object> hashOperations = mock(HashOperations.class);
+        when(stringRedisTemplate.opsForHash()).thenReturn(hashOperations);
+        Map<Object, Object> user = new HashMap<>();
+        user.put("id", "1");
+        user.put("nickName", "user_1");
+        when(hashOperations.entries(anyString())).thenAnswer(invocation ->
+                invocation.getArgument(0).equals(RedisConstants.LOGIN_USER_KEY + "token-1") ? user : new HashMap<>());
+
+        mockMvc = standaloneSetup(new TestController())
+                .addInterceptors(new RefreshTokenInterceptor(stringRedisTemplate), new LoginInterceptor())
+                .build();
+    }
+
+    @AfterEach
+    void tearDown() {
+        UserHolder.removeUser();
+    }
+
+    @Test
+    void asyncRequestDoesNotLeakUserToNextRequest() throws Exception {
+        mockMvc.perform(get("/wait").header("authorization", "token-1"))
+                .andExpect(request().asyncStarted());
+        assertNull(UserHolder.getUser());
+
+        mockMvc.perform(get("/me")).andExpect(status().isUnauthorized());
+    }
+
+    @Test
+    void requestWithoutTokenClearsStaleUser() throws Exception {
+        // 模拟之前的请求在线程上留下了用户
+        UserDTO stale = new UserDTO();
+        stale.setId(2L);
+        UserHolder.saveUser(stale);
+
+        mockMvc.perform(get("/me")).andExpect(status().isUnauthorized());
+    }
+
+    @Test
+    void requestWithTokenPasses() throws Exception {
+        mockMvc.perform(get("/me").header("authorization", "token-1")).andExpect(status().isOk());
+        assertNull(UserHolder.getUser());
+    }
+
+    @RestController
+    static class TestController {
+
+        @GetMapping("/wait")
+        public DeferredResult<Result> waitResult() {
+            return new DeferredResult<>(60_000L);
+        }
+
+        @GetMapping("/me")
+        public Result me() {
+            return Result.ok(UserHolder.getUser());
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package com.hmdp.utils;
+
+import com.hmdp.entity.VoucherOrder;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class OrderRingBufferTests {
+
+    @Test
+    void capacityRoundsUpToPowerOfTwo() {
+        assertEquals(8, new OrderRingBuffer(5, 0).getCapacity());
+        assertEquals(8, new OrderRingBuffer(8, 0).getCapacity());
+        assertEquals(1, new OrderRingBuffer(0, 0).getCapacity());
+    }
+
+    @Test
+    void wrapsAroundAfterRelease() {
+        OrderRingBuffer ringBuffer = new OrderRingBuffer(4, 100);
+        long cursor = 100;
+        for (int round = 0; round < 5; round++) {
+            for (int i = 0; i < 3; i++) {
+                long seq = ringBuffer.claim();
+                ringBuffer.publish(seq, seq, seq + 1, seq + 2);
+            }
+            List<VoucherOrder> out = new ArrayList<>();
+            int n = ringBuffer.drain(cursor, 10, out);
+            assertEquals(3, n);
+            for (int i = 0; i < n; i++) {
+                VoucherOrder voucherOrder = out.get(i);
+                assertEquals(cursor + i, voucherOrder.getId());
+                assertEquals(cursor + i + 1, voucherOrder.getUserId());
+                assertEquals(cursor + i + 2, voucherOrder.getVoucherId());
+            }
+            cursor += n;
+            ringBuffer.release(cursor);
+            assertEquals(0, ringBuffer.size());
+        }
+        assertEquals(115, ringBuffer.nextSequence());
+    }
+
+    @Test
+    void drainStopsAtUnpublishedSlot() {
+        OrderRingBuffer ringBuffer = new OrderRingBuffer(8, 0);
+        long first = ringBuffer.claim();
+        long second = ringBuffer.claim();
+        ringBuffer.publish(second, 2, 2, 2);
+
+        List<VoucherOrder> out = new ArrayList<>();
+        assertEquals(0, ringBuffer.drain(0, 8, out));
+
+        ringBuffer.publish(first, 1, 1, 1);
+        assertEquals(2, ringBuffer.drain(0, 8, out));
+        assertEquals(1L, out.get(0).getId());
+        assertEquals(2L, out.get(1).getId());
+    }
+
+    @Test
+    void multipleProducersDeliverEveryOrderOnce() throws Exception {
+        int producers = 4;
+        int perProducer = 20_000;
+        OrderRingBuffer ringBuffer = new OrderRingBuffer(64, 0);
+        ExecutorService executor = Executors.newFixedThreadPool(producers);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int p = 0; p < producers; p++) {
+                long base = (long) p * perProducer;
+                futures.add(executor.submit(() -> {
+                    for (int i = 0; i < perProducer; i++) {
+                        long seq = ringBuffer.claim();
+                        ringBuffer.publish(seq, base + i + 1, base, 7);
+                    }
+                }));
+            }
+
+            // 容量远小于订单总数, 生产者必须等待消费者释放槽位才能继续
+            Set<Long> seen = new HashSet<>();
+            List<VoucherOrder> out = new ArrayList<>();
+            long cursor = 0;
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+            while (cursor < (long) producers * perProducer && System.nanoTime() < deadline) {
+                out.clear();
+                int n = ringBuffer.drain(cursor, 16, out);
+                for (VoucherOrder voucherOrder : out) {
+                    assertTrue(seen.add(voucherOrder.getId()), "重复的订单" + voucherOrder.getId());
+                    assertEquals(7L, voucherOrder.getVoucherId());
+                }
+                cursor += n;
+                ringBuffer.release(cursor);
+            }
+            for (Future<?> future : futures) {
+                future.get(5, TimeUnit.SECONDS);
+            }
+            assertEquals(producers * perProducer, seen.size());
+            assertEquals(0, ringBuffer.size());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
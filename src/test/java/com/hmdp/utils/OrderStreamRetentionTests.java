@@ -0,0 +1,17 @@
+package com.hmdp.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDate;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class OrderStreamRetentionTests {
+
+    @Test
+    void archiveFileNameIsPortable() {
+        LocalDate date = LocalDate.of(2024, 1, 1);
+        assertEquals("stream.orders_3-20240101.jsonl.gz", OrderStreamRetention.archiveFileName("stream.orders:3", date));
+        assertEquals("stream.orders.dlq-20240101.jsonl.gz", OrderStreamRetention.archiveFileName("stream.orders.dlq", date));
+    }
+}
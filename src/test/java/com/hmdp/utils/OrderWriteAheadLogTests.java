@@ -0,0 +1,106 @@
+package com.hmdp.utils;
+
+import com.hmdp.entity.VoucherOrder;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class OrderWriteAheadLogTests {
+
+    /**
+     * 每个段文件放4条记录
+     */
+    private static final long SEGMENT_BYTES = 4 * 32;
+
+    @TempDir
+    File dir;
+
+    @Test
+    void replaysAppendedRecords() throws IOException {
+        OrderWriteAheadLog wal = new OrderWriteAheadLog(dir, SEGMENT_BYTES);
+        for (long seq = 0; seq < 6; seq++) {
+            wal.append(seq, 1000 + seq, 2000 + seq, 3000 + seq);
+        }
+
+        List<VoucherOrder> replay = new ArrayList<>();
+        assertEquals(6, wal.replay(0, replay::add));
+        assertEquals(6, replay.size());
+        for (int i = 0; i < replay.size(); i++) {
+            assertEquals(1000L + i, replay.get(i).getId());
+            assertEquals(2000L + i, replay.get(i).getUserId());
+            assertEquals(3000L + i, replay.get(i).getVoucherId());
+        }
+        wal.close();
+    }
+
+    @Test
+    void replayStartsAfterPersistedCheckpoint() throws IOException {
+        OrderWriteAheadLog wal = new OrderWriteAheadLog(dir, SEGMENT_BYTES);
+        for (long seq = 0; seq < 10; seq++) {
+            wal.append(seq, 1000 + seq, 1, 1);
+        }
+        wal.checkpoint(9);
+        wal.close();
+
+        // 重新打开, checkpoint之前的段文件已经删除
+        OrderWriteAheadLog reopened = new OrderWriteAheadLog(dir, SEGMENT_BYTES);
+        assertEquals(9, reopened.checkpoint());
+        assertFalse(new File(dir, String.format("wal-%020d.log", 0)).exists());
+        assertFalse(new File(dir, String.format("wal-%020d.log", 1)).exists());
+        assertTrue(new File(dir, String.format("wal-%020d.log", 2)).exists());
+
+        List<VoucherOrder> replay = new ArrayList<>();
+        assertEquals(10, reopened.replay(reopened.checkpoint(), replay::add));
+        assertEquals(1, replay.size());
+        assertEquals(1009L, replay.get(0).getId());
+        reopened.close();
+    }
+
+    @Test
+    void skipsRecordWithBadChecksum() throws IOException {
+        OrderWriteAheadLog wal = new OrderWriteAheadLog(dir, SEGMENT_BYTES);
+        for (long seq = 0; seq < 3; seq++) {
+            wal.append(seq, 1000 + seq, 2000 + seq, 3000 + seq);
+        }
+        wal.close();
+        // 改写第2条记录的userId, 校验值不再匹配
+        try (RandomAccessFile file = new RandomAccessFile(new File(dir, String.format("wal-%020d.log", 0)), "rw")) {
+            file.seek(32 + 8);
+            file.writeLong(9999);
+        }
+
+        List<VoucherOrder> replay = new ArrayList<>();
+        assertEquals(3, new OrderWriteAheadLog(dir, SEGMENT_BYTES).replay(0, replay::add));
+        assertEquals(2, replay.size());
+        assertEquals(1000L, replay.get(0).getId());
+        assertEquals(1002L, replay.get(1).getId());
+    }
+
+    @Test
+    void ignoresTornTailRecord() throws IOException {
+        OrderWriteAheadLog wal = new OrderWriteAheadLog(dir, SEGMENT_BYTES);
+        wal.append(0, 1000, 2000, 3000);
+        wal.append(1, 1001, 2001, 3001);
+        wal.close();
+        // 第3条记录只写了orderId和userId就崩溃了
+        try (RandomAccessFile file = new RandomAccessFile(new File(dir, String.format("wal-%020d.log", 0)), "rw")) {
+            file.seek(2 * 32);
+            file.writeLong(1002);
+            file.writeLong(2002);
+        }
+
+        List<VoucherOrder> replay = new ArrayList<>();
+        assertEquals(2, new OrderWriteAheadLog(dir, SEGMENT_BYTES).replay(0, replay::add));
+        assertEquals(2, replay.size());
+        assertEquals(1001L, replay.get(1).getId());
+    }
+}
@@ -0,0 +1,105 @@
+package com.hmdp.utils;
+
+import com.hmdp.config.IdWorkerProperties;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * segment模式的号段分配, redis计数器用mock代替
+ */
+class RedisIdWorkerSegmentTests {
+
+    private static final long SEQUENCE_MASK = (1L << 32) - 1;
+
+    private final AtomicLong counter = new AtomicLong();
+
+    private ValueOperations<String, String> valueOperations;
+
+    private RedisIdWorker redisIdWorker;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        StringRedisTemplate stringRedisTemplate = mock(StringRedisTemplate.class);
+        valueOperations = mock(ValueOperations.class);
+        when(stringRedisTemplate.opsForValue()).thenReturn(valueOperations);
+        when(valueOperations.increment(anyString(), anyLong()))
+                .thenAnswer(invocation -> counter.addAndGet(invocation.getArgument(1)));
+
+        IdWorkerProperties properties = new IdWorkerProperties();
+        properties.setMode(IdWorkerProperties.Mode.SEGMENT);
+        properties.setSegmentSize(10);
+        properties.setRefillRatio(0.2);
+        redisIdWorker = new RedisIdWorker(stringRedisTemplate, properties);
+    }
+
+    @AfterEach
+    void tearDown() {
+        ReflectionTestUtils.invokeMethod(redisIdWorker, "destroy");
+    }
+
+    @Test
+    void prefetchesNextBlockBeforeCurrentRunsOut() {
+        // 分配到第8个(剩余20%)时异步预取下一段
+        for (long expected = 1; expected <= 8; expected++) {
+            assertEquals(expected, redisIdWorker.nextId("order") & SEQUENCE_MASK);
+        }
+        verify(valueOperations, timeout(1000).times(2)).increment(anyString(), eq(10L));
+
+        // 切换到预取好的号段, 不再同步访问redis
+        for (long expected = 9; expected <= 17; expected++) {
+            assertEquals(expected, redisIdWorker.nextId("order") & SEQUENCE_MASK);
+        }
+        verify(valueOperations, times(2)).increment(anyString(), eq(10L));
+    }
+
+    @Test
+    void concurrentCallersNeverShareASequence() throws Exception {
+        int threads = 8;
+        int perThread = 2_000;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            Set<Long> ids = Collections.synchronizedSet(new HashSet<>());
+            Future<?>[] futures = new Future<?>[threads];
+            for (int t = 0; t < threads; t++) {
+                futures[t] = executor.submit(() -> {
+                    for (int i = 0; i < perThread; i++) {
+                        ids.add(redisIdWorker.nextId("order") & SEQUENCE_MASK);
+                    }
+                });
+            }
+            for (Future<?> future : futures) {
+                future.get(10, TimeUnit.SECONDS);
+            }
+            assertEquals(threads * perThread, ids.size());
+            // 预取但没用完的号段只会浪费序列号, 不会重复
+            assertTrue(counter.get() >= threads * perThread);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
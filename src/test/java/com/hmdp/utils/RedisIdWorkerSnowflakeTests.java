@@ -0,0 +1,107 @@
+package com.hmdp.utils;
+
+import com.hmdp.config.IdWorkerProperties;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * snowflake模式的序列号与时钟回拨处理, workerId租约用mock代替
+ */
+class RedisIdWorkerSnowflakeTests {
+
+    private static final int WORKER_BITS = 10;
+
+    private static final int SEQUENCE_BITS = 32 - WORKER_BITS;
+
+    private static final long SEQUENCE_MASK = (1L << SEQUENCE_BITS) - 1;
+
+    private RedisIdWorker redisIdWorker;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        StringRedisTemplate stringRedisTemplate = mock(StringRedisTemplate.class);
+        ValueOperations<String, String> valueOperations = mock(ValueOperations.class);
+        when(stringRedisTemplate.opsForValue()).thenReturn(valueOperations);
+        when(valueOperations.setIfAbsent(anyString(), anyString(), anyLong(), any(TimeUnit.class))).thenReturn(true);
+
+        IdWorkerProperties properties = new IdWorkerProperties();
+        properties.setMode(IdWorkerProperties.Mode.SNOWFLAKE);
+        properties.setWorkerBits(WORKER_BITS);
+        properties.setMaxBackward(Duration.ofSeconds(5));
+        redisIdWorker = new RedisIdWorker(stringRedisTemplate, properties);
+        ReflectionTestUtils.invokeMethod(redisIdWorker, "init");
+    }
+
+    @AfterEach
+    void tearDown() {
+        ReflectionTestUtils.invokeMethod(redisIdWorker, "destroy");
+    }
+
+    @Test
+    void idsCarryLeasedWorkerId() {
+        long workerId = (long) ReflectionTestUtils.getField(redisIdWorker, "workerId");
+        long first = redisIdWorker.nextId("order");
+        long second = redisIdWorker.nextId("order");
+        assertEquals(workerId, (first >>> SEQUENCE_BITS) & ((1L << WORKER_BITS) - 1));
+        assertTrue(second > first);
+    }
+
+    @Test
+    void waitsForNextSecondWhenSequenceOverflows() {
+        long timestamp = redisIdWorker.nextId("order") >>> 32;
+        // 这一秒的序列号已经用完
+        state().set(timestamp << SEQUENCE_BITS | SEQUENCE_MASK);
+
+        long id = redisIdWorker.nextId("order");
+        assertTrue((id >>> 32) > timestamp);
+        assertEquals(0, id & SEQUENCE_MASK);
+    }
+
+    @Test
+    void keepsLastTimestampWithinMaxBackward() {
+        long timestamp = redisIdWorker.nextId("order") >>> 32;
+        // 上次使用的时间戳比当前时钟快3秒, 相当于时钟回拨了3秒
+        state().set((timestamp + 3) << SEQUENCE_BITS | 5);
+
+        long id = redisIdWorker.nextId("order");
+        assertEquals(timestamp + 3, id >>> 32);
+        assertEquals(6, id & SEQUENCE_MASK);
+    }
+
+    @Test
+    void rejectsRollbackBeyondMaxBackward() {
+        long timestamp = redisIdWorker.nextId("order") >>> 32;
+        state().set((timestamp + 10) << SEQUENCE_BITS);
+
+        assertThrows(IllegalStateException.class, () -> redisIdWorker.nextId("order"));
+    }
+
+    @Test
+    void rejectsAfterLeaseExpires() {
+        ReflectionTestUtils.setField(redisIdWorker, "leaseDeadline", 0L);
+
+        assertThrows(IllegalStateException.class, () -> redisIdWorker.nextId("order"));
+    }
+
+    private AtomicLong state() {
+        return (AtomicLong) ReflectionTestUtils.getField(redisIdWorker, "snowflakeState");
+    }
+}
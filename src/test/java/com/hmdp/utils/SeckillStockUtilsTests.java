@@ -0,0 +1,62 @@
+package com.hmdp.utils;
+
+import io.lettuce.core.cluster.SlotHash;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class SeckillStockUtilsTests {
+
+    @Test
+    void scriptKeysOfOneSegmentShareOneSlot() {
+        for (int segment = 0; segment < 8; segment++) {
+            List<String> keys = SeckillStockUtils.scriptKeys(42L, segment, 8, 16, true);
+            assertEquals(4, keys.size());
+            Set<Integer> slots = new HashSet<>();
+            keys.forEach(key -> slots.add(SlotHash.getSlot(key)));
+            assertEquals(1, slots.size(), keys.toString());
+        }
+    }
+
+    @Test
+    void segmentsSpreadOverPartitions() {
+        Set<Integer> slots = new HashSet<>();
+        for (int segment = 0; segment < 8; segment++) {
+            slots.add(SlotHash.getSlot(SeckillStockUtils.stockKey(42L, segment, 8, 16)));
+        }
+        assertEquals(8, slots.size());
+    }
+
+    @Test
+    void unsegmentedKeysUseVoucherPartition() {
+        assertEquals("seckill:stock:{stream.orders:10}:42", SeckillStockUtils.stockKey(42L, 0, 1, 16));
+        assertEquals("stream.orders:10", SeckillStockUtils.scriptKeys(42L, 0, 1, 16, true).get(3));
+        assertEquals("seckill:voucher:{stream.orders:10}:42", SeckillStockUtils.windowKey(42L, 0, 1, 16));
+        assertEquals(3, SeckillStockUtils.scriptKeys(42L, 0, 1, 1, false).size());
+    }
+
+    @Test
+    void singleSegmentAndPartitionKeepsLegacyNames() {
+        assertEquals(Arrays.asList("seckill:voucher:42", "seckill:stock:42", "seckill:order:42", "stream.orders"),
+                SeckillStockUtils.scriptKeys(42L, 0, 1, 1, true));
+        assertEquals(Collections.singletonMap("seckill:stock:42", "100"), SeckillStockUtils.splitStock(42L, 100, 1, 1));
+        // 只有一个分区但分段时仍带hash tag, 各段与stream.orders在同一个slot
+        assertEquals("seckill:stock:{stream.orders}:42:1", SeckillStockUtils.stockKey(42L, 1, 8, 1));
+    }
+
+    @Test
+    void splitStockKeepsTotal() {
+        Map<String, String> stocks = SeckillStockUtils.splitStock(42L, 103, 8, 16);
+        assertEquals(8, stocks.size());
+        assertEquals(103, stocks.values().stream().mapToInt(Integer::parseInt).sum());
+        assertEquals("13", stocks.get(SeckillStockUtils.stockKey(42L, 0, 8, 16)));
+        assertEquals("12", stocks.get(SeckillStockUtils.stockKey(42L, 7, 8, 16)));
+    }
+}
@@ -0,0 +1,81 @@
+package com.hmdp.utils;
+
+import com.hmdp.config.SeckillProperties;
+import com.hmdp.service.impl.SeckillVoucherServiceImpl;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.connection.DefaultMessage;
+import org.springframework.data.redis.core.HashOperations;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collection;
+
+import static com.hmdp.utils.RedisConstants.SECKILL_SOLD_OUT_CHANNEL;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * 本地时间窗口从redis读取, 其他节点重新写入券时通过售罄频道的清除通知失效
+ */
+class SeckillWindowTests {
+
+    private HashOperations<String, Object, Object> hashOperations;
+
+    private SoldOutRegistry soldOutRegistry;
+
+    private SeckillVoucherServiceImpl seckillVoucherService;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        StringRedisTemplate stringRedisTemplate = mock(StringRedisTemplate.class);
+        hashOperations = mock(HashOperations.class);
+        when(stringRedisTemplate.opsForHash()).thenReturn(hashOperations);
+
+        SeckillProperties properties = new SeckillProperties();
+        soldOutRegistry = new SoldOutRegistry(stringRedisTemplate, mock(RedisMessageListenerContainer.class), properties);
+        seckillVoucherService = new SeckillVoucherServiceImpl(stringRedisTemplate, properties, soldOutRegistry);
+        ReflectionTestUtils.invokeMethod(seckillVoucherService, "init");
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void reloadsWindowAfterClearFromAnotherNode() {
+        long now = System.currentTimeMillis();
+        window(now + 60_000, now + 120_000);
+        assertEquals(3, seckillVoucherService.checkWindow(42L));
+
+        // 其他节点把秒杀改到了已经结束的时间, 本节点收到清除通知前仍使用缓存的窗口
+        window(now - 120_000, now - 60_000);
+        assertEquals(3, seckillVoucherService.checkWindow(42L));
+        verify(hashOperations, times(1)).multiGet(eq("seckill:voucher:42"), any(Collection.class));
+
+        soldOutRegistry.onMessage(new DefaultMessage(SECKILL_SOLD_OUT_CHANNEL.getBytes(StandardCharsets.UTF_8),
+                "-42".getBytes(StandardCharsets.UTF_8)), null);
+        assertEquals(4, seckillVoucherService.checkWindow(42L));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void missingWindowIsNotCached() {
+        when(hashOperations.multiGet(eq("seckill:voucher:7"), any(Collection.class))).thenReturn(Arrays.asList(null, null));
+        assertEquals(0, seckillVoucherService.checkWindow(7L));
+        assertEquals(0, seckillVoucherService.checkWindow(7L));
+        verify(hashOperations, times(2)).multiGet(eq("seckill:voucher:7"), any(Collection.class));
+    }
+
+    @SuppressWarnings("unchecked")
+    private void window(long begin, long end) {
+        when(hashOperations.multiGet(eq("seckill:voucher:42"), any(Collection.class)))
+                .thenReturn(Arrays.asList(String.valueOf(begin), String.valueOf(end)));
+    }
+}